@@ -6,6 +6,7 @@ import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
 
 @Configuration
 @EnableAsync
@@ -21,4 +22,36 @@ public class AsyncConfig {
         executor.initialize();
         return executor;
     }
+
+    /**
+     * WebSocket出站写线程池，只负责发起异步发送，不做阻塞IO
+     */
+    @Bean(name = "wsWriterExecutor")
+    public Executor wsWriterExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(Runtime.getRuntime().availableProcessors());
+        executor.setMaxPoolSize(Runtime.getRuntime().availableProcessors());
+        executor.setQueueCapacity(10000);
+        executor.setThreadNamePrefix("Dating-WsWriter-");
+        // 队列满时由调用线程执行，保证出站队列不会因任务被拒绝而停止排空
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 重连离线同步线程池，限制同时回放的连接数，避免重连风暴压垮数据库
+     */
+    @Bean(name = "wsSyncExecutor")
+    public Executor wsSyncExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(4);
+        executor.setMaxPoolSize(8);
+        executor.setQueueCapacity(5000);
+        executor.setThreadNamePrefix("Dating-WsSync-");
+        // 队列满时由连接线程同步执行，形成背压
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+        return executor;
+    }
 }
@@ -0,0 +1,15 @@
+package com.dating.config;
+
+import com.dating.service.WorkerIdAllocator;
+import com.dating.util.SnowflakeIdGenerator;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class IdGeneratorConfig {
+
+    @Bean
+    public SnowflakeIdGenerator snowflakeIdGenerator(WorkerIdAllocator workerIdAllocator) {
+        return workerIdAllocator.getGenerator();
+    }
+}
@@ -22,6 +22,7 @@ public class WebConfig implements WebMvcConfigurer {
                         "/api/user/send-register-code",
                         "/api/user/send-reset-password-code",
                         "/api/user/reset-password",
+                        "/api/photo/file/**",
                         "/swagger-ui/**",
                         "/v3/api-docs/**"
                 );
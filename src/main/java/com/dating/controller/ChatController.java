@@ -4,6 +4,7 @@ package com.dating.controller;
 import com.dating.service.OnlineStatusService;
 import com.dating.util.Result;
 import com.dating.dto.ChatContact;
+import com.dating.dto.ChatHistoryPage;
 import com.dating.entity.ChatMessage;
 import com.dating.service.ChatService;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -11,13 +12,18 @@ import org.springframework.web.bind.annotation.*;
 import com.dating.util.JwtUtil;
 
 import javax.servlet.http.HttpServletRequest;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/chat")
 @CrossOrigin(origins = "*")
 public class ChatController {
 
+    private static final int MAX_PAGE_SIZE = 100;
+
     @Autowired
     private ChatService chatService;
 
@@ -44,6 +50,47 @@ public class ChatController {
         return Result.success(messages);
     }
 
+    // 游标分页获取聊天历史记录（从最新消息向前翻页）
+    @GetMapping("/history/{targetUserId}/cursor")
+    public Result<ChatHistoryPage> getChatHistoryByCursor(
+            @PathVariable Long targetUserId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") Integer size,
+            HttpServletRequest request) {
+
+        Long userId = jwtUtils.getUserIdFromRequest(request);
+        if (userId == null) {
+            return Result.error("未登录");
+        }
+
+        try {
+            int pageSize = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+            return Result.success(chatService.getChatHistoryPage(userId, targetUserId, cursor, pageSize));
+        } catch (IllegalArgumentException e) {
+            return Result.error(e.getMessage());
+        }
+    }
+
+    // 按会话内序号区间补拉缺失消息
+    @GetMapping("/history/{targetUserId}/range")
+    public Result<List<ChatMessage>> getChatHistoryBySeqRange(
+            @PathVariable Long targetUserId,
+            @RequestParam Long fromSeq,
+            @RequestParam Long toSeq,
+            HttpServletRequest request) {
+
+        Long userId = jwtUtils.getUserIdFromRequest(request);
+        if (userId == null) {
+            return Result.error("未登录");
+        }
+
+        try {
+            return Result.success(chatService.getMessagesBySeqRange(userId, targetUserId, fromSeq, toSeq, MAX_PAGE_SIZE));
+        } catch (IllegalArgumentException e) {
+            return Result.error(e.getMessage());
+        }
+    }
+
     // 标记消息为已读
     @PostMapping("/read/{fromUserId}")
     public Result<Void> markAsRead(@PathVariable Long fromUserId, HttpServletRequest request) {
@@ -78,6 +125,10 @@ public class ChatController {
 
         List<ChatContact> contacts = chatService.getChatContacts(userId);
 
+        // 批量查询在线状态，一次往返
+        Set<Long> onlineUsers = new HashSet<>(onlineStatusService.getOnlineUsersFromList(
+                contacts.stream().map(ChatContact::getContactUserId).collect(Collectors.toList())));
+
         // 添加在线状态信息
         List<ChatContactWithStatus> contactsWithStatus = contacts.stream()
                 .map(contact -> {
@@ -88,10 +139,10 @@ public class ChatController {
                     contactWithStatus.setLastMessage(contact.getLastMessage());
                     contactWithStatus.setLastMessageTime(contact.getLastMessageTime());
                     contactWithStatus.setUnreadCount(contact.getUnreadCount());
-                    contactWithStatus.setOnline(onlineStatusService.isUserOnline(contact.getContactUserId()));
+                    contactWithStatus.setOnline(onlineUsers.contains(contact.getContactUserId()));
                     return contactWithStatus;
                 })
-                .collect(java.util.stream.Collectors.toList());
+                .collect(Collectors.toList());
 
         return Result.success(contactsWithStatus);
     }
@@ -1,19 +1,29 @@
 // 2. 匹配控制器
 package com.dating.controller;
 
+import com.dating.dto.SwipeRequest;
+import com.dating.service.DiscoveryFeedService;
 import com.dating.service.MatchService;
 import com.dating.util.Result;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
+
 @RestController
 @RequestMapping("/api/match")
 @CrossOrigin
 public class MatchController {
 
+    private static final int MAX_FEED_SIZE = 50;
+    private static final int MAX_BATCH_SWIPES = 100;
+
     @Autowired
     private MatchService matchService;
 
+    @Autowired
+    private DiscoveryFeedService discoveryFeedService;
+
     /**
      * 喜欢用户
      */
@@ -46,6 +56,48 @@ public class MatchController {
         }
     }
 
+    /**
+     * 批量滑动：客户端把连续的多次喜欢/跳过合并为一次请求
+     */
+    @PostMapping("/swipes")
+    public Result batchSwipe(@RequestAttribute("userId") Long userId,
+                             @RequestBody List<SwipeRequest> swipes) {
+        if (swipes == null || swipes.isEmpty()) {
+            return Result.error("滑动记录不能为空");
+        }
+        if (swipes.size() > MAX_BATCH_SWIPES) {
+            return Result.error("单次最多提交" + MAX_BATCH_SWIPES + "条滑动记录");
+        }
+        try {
+            return Result.success(matchService.batchUserMatch(userId, swipes));
+        } catch (IllegalArgumentException e) {
+            return Result.error(e.getMessage());
+        } catch (Exception e) {
+            return Result.error("操作失败");
+        }
+    }
+
+    /**
+     * 推荐流：按条件获取下一页候选用户，已滑过的用户不会出现
+     */
+    @GetMapping("/feed")
+    public Result getFeed(@RequestAttribute("userId") Long userId,
+                          @RequestParam(required = false) Integer gender,
+                          @RequestParam(required = false) String city,
+                          @RequestParam(required = false) Integer minAge,
+                          @RequestParam(required = false) Integer maxAge,
+                          @RequestParam(defaultValue = "20") Integer size,
+                          @RequestParam(defaultValue = "false") Boolean refresh) {
+        try {
+            int pageSize = Math.max(1, Math.min(size, MAX_FEED_SIZE));
+            return Result.success(discoveryFeedService.getFeed(userId, gender, city, minAge, maxAge, pageSize, refresh));
+        } catch (IllegalArgumentException e) {
+            return Result.error(e.getMessage());
+        } catch (Exception e) {
+            return Result.error("获取推荐失败");
+        }
+    }
+
     /**
      * 获取互相喜欢的用户列表
      */
@@ -0,0 +1,126 @@
+// 7. 运行指标控制器
+package com.dating.controller;
+
+import com.dating.service.ChatMessageBatchWriter;
+import com.dating.service.DataIntegrityService;
+import com.dating.service.MatchService;
+import com.dating.service.PasswordHashingService;
+import com.dating.service.PhotoStorageService;
+import com.dating.service.PhotoVariantService;
+import com.dating.service.RedisRateLimiter;
+import com.dating.service.UserPhotoService;
+import com.dating.util.JwtUtil;
+import com.dating.util.Result;
+import com.dating.websocket.HeartbeatMonitor;
+import com.dating.websocket.MessageDispatcher;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/metrics")
+@CrossOrigin(origins = "*")
+public class MetricsController {
+
+    @Autowired
+    private MessageDispatcher messageDispatcher;
+
+    @Autowired
+    private DataIntegrityService dataIntegrityService;
+
+    @Autowired
+    private ChatMessageBatchWriter chatMessageBatchWriter;
+
+    @Autowired
+    private HeartbeatMonitor heartbeatMonitor;
+
+    @Autowired
+    private JwtUtil jwtUtil;
+
+    @Autowired
+    private PasswordHashingService passwordHashingService;
+
+    @Autowired
+    private MatchService matchService;
+
+    @Autowired
+    private PhotoStorageService photoStorageService;
+
+    @Autowired
+    private PhotoVariantService photoVariantService;
+
+    @Autowired
+    private UserPhotoService userPhotoService;
+
+    @Autowired
+    private RedisRateLimiter redisRateLimiter;
+
+    // 获取各WebSocket会话出站队列深度（管理员接口）
+    @GetMapping("/outbound")
+    public Result<List<Map<String, Object>>> getOutboundQueueMetrics() {
+        // 这里可以添加权限验证，只允许管理员查看
+        return Result.success(messageDispatcher.getQueueMetrics());
+    }
+
+    // 获取消息批量落库的队列深度、失败数、补写数与待落库日志大小
+    @GetMapping("/write-behind")
+    public Result<Map<String, Object>> getWriteBehindMetrics() {
+        return Result.success(chatMessageBatchWriter.getStats());
+    }
+
+    // 获取滑动吞吐与每次滑动的数据库语句数
+    @GetMapping("/swipes")
+    public Result<Map<String, Object>> getSwipeMetrics() {
+        return Result.success(matchService.getSwipeStats());
+    }
+
+    // 获取照片存储上传、去重与下载字节数
+    @GetMapping("/photo-storage")
+    public Result<Map<String, Object>> getPhotoStorageMetrics() {
+        return Result.success(photoStorageService.getStats());
+    }
+
+    // 获取缩略图线程池负载与生成耗时
+    @GetMapping("/photo-variants")
+    public Result<Map<String, Object>> getPhotoVariantMetrics() {
+        return Result.success(photoVariantService.getStats());
+    }
+
+    // 获取限流放行、拒绝次数与Redis异常放行次数
+    @GetMapping("/rate-limit")
+    public Result<Map<String, Object>> getRateLimitMetrics() {
+        return Result.success(redisRateLimiter.getStats());
+    }
+
+    // 获取密码哈希线程池负载与拒绝次数
+    @GetMapping("/password-hashing")
+    public Result<Map<String, Object>> getPasswordHashingMetrics() {
+        return Result.success(passwordHashingService.getStats());
+    }
+
+    // 获取已验签Token缓存命中率
+    @GetMapping("/jwt-cache")
+    public Result<Map<String, Object>> getJwtCacheMetrics() {
+        return Result.success(jwtUtil.getCacheStats());
+    }
+
+    // 获取心跳超时回收的连接数
+    @GetMapping("/heartbeat")
+    public Result<Long> getHeartbeatEvictedCount() {
+        return Result.success(heartbeatMonitor.getEvictedCount());
+    }
+
+    // 获取用户状态缓存命中率与加载耗时
+    @GetMapping("/user-status-cache")
+    public Result<Map<String, Object>> getUserStatusCacheMetrics() {
+        return Result.success(dataIntegrityService.getUserStatusCacheStats());
+    }
+
+    // 获取相册缓存命中率与加载耗时
+    @GetMapping("/photo-list-cache")
+    public Result<Map<String, Object>> getPhotoListCacheMetrics() {
+        return Result.success(userPhotoService.getPhotoListCacheStats());
+    }
+}
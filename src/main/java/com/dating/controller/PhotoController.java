@@ -2,20 +2,50 @@
 package com.dating.controller;
 
 import com.dating.entity.UserPhoto;
+import com.dating.service.PhotoStorageService;
 import com.dating.service.UserPhotoService;
 import com.dating.util.Result;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+@Slf4j
 @RestController
 @RequestMapping("/api/photo")
 @CrossOrigin
 public class PhotoController {
 
+    // Tomcat NIO连接器的sendfile请求属性
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private static final int MAX_REORDER_SIZE = 50;
+
+    // 内容寻址的文件永不变化
+    private static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+
     @Autowired
     private UserPhotoService userPhotoService;
 
+    @Autowired
+    private PhotoStorageService photoStorageService;
+
     /**
      * 上传照片
      */
@@ -24,8 +54,7 @@ public class PhotoController {
                               @RequestParam("file") MultipartFile file,
                               @RequestParam(defaultValue = "0") Integer isAvatar) {
         try {
-            // 这里应该实现文件上传逻辑，保存到文件服务器或云存储
-            String photoUrl = "http://example.com/photos/" + System.currentTimeMillis() + ".jpg";
+            String photoUrl = photoStorageService.store(file).getUrl();
 
             UserPhoto userPhoto = new UserPhoto();
             userPhoto.setUserId(userId);
@@ -34,12 +63,98 @@ public class PhotoController {
             userPhoto.setStatus(1);
 
             userPhotoService.addUserPhoto(userPhoto);
-            return Result.success("上传成功").put("photoUrl", photoUrl);
+            return Result.success("上传成功")
+                    .put("photoId", userPhoto.getId())
+                    .put("photoUrl", photoUrl)
+                    .put("variantUrls", userPhoto.getVariantUrls());
+        } catch (IllegalArgumentException e) {
+            return Result.error(e.getMessage());
         } catch (Exception e) {
+            log.error("用户{}上传照片失败", userId, e);
             return Result.error("上传失败");
         }
     }
 
+    /**
+     * 下载照片：支持ETag条件请求与单段Range，文件内容由sendfile或FileChannel.transferTo直接写出
+     */
+    @GetMapping("/file/{key:.+}")
+    public void downloadPhoto(@PathVariable String key,
+                              HttpServletRequest request,
+                              HttpServletResponse response) throws IOException {
+        Path path = photoStorageService.locate(key);
+        if (path == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        String etag = photoStorageService.etagOf(key);
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, IMMUTABLE_CACHE_CONTROL);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setContentType(photoStorageService.contentType(key));
+
+        if (etagMatches(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        long length = Files.size(path);
+        long start = 0;
+        long end = length - 1;
+        String range = request.getHeader(HttpHeaders.RANGE);
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (range != null && (ifRange == null || ifRange.equals(etag))) {
+            List<HttpRange> ranges;
+            try {
+                ranges = HttpRange.parseRanges(range);
+            } catch (IllegalArgumentException e) {
+                ranges = null;
+            }
+            // 多段Range按完整内容返回
+            if (ranges != null && ranges.size() == 1) {
+                HttpRange requested = ranges.get(0);
+                if (length == 0 || requested.getRangeStart(length) >= length) {
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                    response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+                start = requested.getRangeStart(length);
+                end = requested.getRangeEnd(length);
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+
+        long count = end - start + 1;
+        response.setContentLengthLong(count);
+        if ("HEAD".equals(request.getMethod()) || count <= 0) {
+            return;
+        }
+
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            // 交给容器在响应提交后用sendfile从页缓存直接写入socket
+            request.setAttribute(SENDFILE_FILENAME, path.toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end + 1);
+        } else {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+                long position = start;
+                long remaining = count;
+                while (remaining > 0) {
+                    long sent = channel.transferTo(position, remaining, out);
+                    if (sent <= 0) {
+                        break;
+                    }
+                    position += sent;
+                    remaining -= sent;
+                }
+            }
+        }
+        photoStorageService.recordDownload(count);
+    }
+
     /**
      * 获取用户照片列表
      */
@@ -67,4 +182,38 @@ public class PhotoController {
             return Result.error("设置头像失败");
         }
     }
+
+    /**
+     * 批量调整照片顺序，请求体为按期望顺序排列的照片ID
+     */
+    @PostMapping("/reorder")
+    public Result reorderPhotos(@RequestAttribute("userId") Long userId,
+                                @RequestBody List<Long> photoIds) {
+        if (photoIds != null && photoIds.size() > MAX_REORDER_SIZE) {
+            return Result.error("单次最多调整" + MAX_REORDER_SIZE + "张照片");
+        }
+        try {
+            return Result.success(userPhotoService.reorderPhotos(userId, photoIds));
+        } catch (IllegalArgumentException e) {
+            return Result.error(e.getMessage());
+        } catch (Exception e) {
+            return Result.error("调整照片顺序失败");
+        }
+    }
+
+    private boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if ("*".equals(value) || value.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
\ No newline at end of file
@@ -5,8 +5,10 @@ import com.dating.dto.ResetPasswordRequest;
 import com.dating.dto.SendCodeRequest;
 import com.dating.dto.UserRegisterRequest;
 import com.dating.entity.User;
-import com.dating.entity.UserAuth;
 import com.dating.exception.BusinessException;
+import com.dating.exception.ServiceBusyException;
+import com.dating.service.PasswordHashingService;
+import com.dating.service.RedisRateLimiter;
 import com.dating.service.SmsService;
 import com.dating.service.UserAuthService;
 import com.dating.service.UserService;
@@ -16,11 +18,18 @@ import com.dating.vo.UserVO;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 
+import javax.annotation.PostConstruct;
 import javax.servlet.http.HttpServletRequest;
 import javax.validation.Valid;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/user")
@@ -40,6 +49,23 @@ public class UserController {
     @Autowired
     private JwtUtil jwtUtil;
 
+    @Autowired
+    private PasswordHashingService passwordHashingService;
+
+    @Value("${rate-limit.trusted-proxies:}")
+    private String trustedProxyList;
+
+    // 可信反向代理地址，只有直接来自这些地址的请求才采信转发头
+    private Set<String> trustedProxies;
+
+    @PostConstruct
+    public void init() {
+        trustedProxies = Arrays.stream(trustedProxyList.split(","))
+                .map(String::trim)
+                .filter(StringUtils::isNotEmpty)
+                .collect(Collectors.toSet());
+    }
+
     /**
      * 发送注册验证码
      */
@@ -75,11 +101,11 @@ public class UserController {
      * 用户注册
      */
     @PostMapping("/register")
-    public Result register(@Valid @RequestBody UserRegisterRequest request, HttpServletRequest httpRequest) {
+    public CompletableFuture<Result> register(@Valid @RequestBody UserRegisterRequest request, HttpServletRequest httpRequest) {
         try {
             // 验证手机号格式
             if (!isValidPhone(request.getPhone())) {
-                return Result.error("手机号格式不正确");
+                return CompletableFuture.completedFuture(Result.error("手机号格式不正确"));
             }
 
             // 验证短信验证码
@@ -89,36 +115,37 @@ public class UserController {
 
             // 检查手机号是否已注册
             if (userService.isPhoneRegistered(request.getPhone())) {
-                return Result.error("手机号已注册");
+                return CompletableFuture.completedFuture(Result.error("手机号已注册"));
             }
 
             // 检查用户名是否已存在（如果提供了用户名）
             if (StringUtils.isNotBlank(request.getUsername()) &&
                     userService.existsByUsername(request.getUsername())) {
-                return Result.error("用户名已存在");
-            }
-
-            // 注册用户
-            User user = userService.registerUser(request);
-            if (user != null) {
-                // 生成JWT Token
-                String token = jwtUtil.generateToken(user.getId().toString());
-
-                // 返回用户基本信息（不包含敏感信息）
-                UserVO userVO = convertToUserVO(user);
-
-                return Result.success("注册成功")
-                        .put("token", token)
-                        .put("user", userVO);
+                return CompletableFuture.completedFuture(Result.error("用户名已存在"));
             }
 
-            return Result.error("注册失败，请稍后重试");
-        } catch (BusinessException e) {
-            log.warn("注册业务异常：{}", e.getMessage());
-            return Result.error(e.getMessage());
+            // 密码哈希在哈希线程池中计算，请求线程立即释放；后续落库耗时很短，直接在哈希线程中继续
+            return passwordHashingService.encode(request.getPassword())
+                    .thenApply(encodedPassword -> {
+                        // 注册用户
+                        User user = userService.registerUser(request, encodedPassword);
+                        if (user != null) {
+                            // 生成JWT Token
+                            String token = jwtUtil.generateToken(user.getId().toString());
+
+                            // 返回用户基本信息（不包含敏感信息）
+                            UserVO userVO = convertToUserVO(user);
+
+                            return Result.success("注册成功")
+                                    .put("token", token)
+                                    .put("user", userVO);
+                        }
+                        return Result.error("注册失败，请稍后重试");
+                    })
+                    .exceptionally(e -> asyncFailure(e, "用户注册异常：", "系统异常，请稍后重试"));
         } catch (Exception e) {
             log.error("用户注册异常：", e);
-            return Result.error("系统异常，请稍后重试");
+            return CompletableFuture.completedFuture(Result.error("系统异常，请稍后重试"));
         }
     }
 
@@ -126,41 +153,52 @@ public class UserController {
      * 用户登录
      */
     @PostMapping("/login")
-    public Result login(@Valid @RequestBody LoginRequest request, HttpServletRequest httpRequest) {
+    public CompletableFuture<Result> login(@Valid @RequestBody LoginRequest request, HttpServletRequest httpRequest) {
         try {
             // 验证参数
             if (StringUtils.isBlank(request.getPhone()) || StringUtils.isBlank(request.getPassword())) {
-                return Result.error("手机号和密码不能为空");
-            }
-
-            // 验证用户
-            UserAuth userAuth = userAuthService.authenticateUser(request.getPhone(), request.getPassword());
-            if (userAuth == null) {
-                return Result.error("手机号或密码错误");
-            }
-
-            // 获取用户信息
-            User user = userService.findById(userAuth.getUserId());
-            if (user == null || user.getStatus() != 1) {
-                return Result.error("用户不存在或已被冻结");
+                return CompletableFuture.completedFuture(Result.error("手机号和密码不能为空"));
             }
 
-            // 更新登录信息
             String ip = getClientIp(httpRequest);
-            userAuthService.updateLoginInfo(userAuth.getId(), ip);
 
-            // 生成Token
-            String token = jwtUtil.generateToken(user.getId().toString());
-
-            // 返回结果
-            UserVO userVO = convertToUserVO(user);
-            return Result.success("登录成功")
-                    .put("token", token)
-                    .put("user", userVO);
+            // 频率限制
+            RedisRateLimiter.Decision decision = userAuthService.acquireLoginAttempt(request.getPhone(), ip);
+            if (!decision.isAllowed()) {
+                log.warn("登录过于频繁：phone={}, ip={}", request.getPhone(), ip);
+                return CompletableFuture.completedFuture(
+                        Result.error(429, "登录尝试过于频繁，请" + decision.getRetryAfterSeconds() + "秒后重试"));
+            }
 
+            // 验证用户（密码校验在哈希线程池中执行）
+            return userAuthService.authenticateUser(request.getPhone(), request.getPassword())
+                    .thenApply(userAuth -> {
+                        if (userAuth == null) {
+                            return Result.error("手机号或密码错误");
+                        }
+
+                        // 获取用户信息
+                        User user = userService.findById(userAuth.getUserId());
+                        if (user == null || user.getStatus() != 1) {
+                            return Result.error("用户不存在或已被冻结");
+                        }
+
+                        // 更新登录信息
+                        userAuthService.updateLoginInfo(userAuth.getId(), ip);
+
+                        // 生成Token
+                        String token = jwtUtil.generateToken(user.getId().toString());
+
+                        // 返回结果
+                        UserVO userVO = convertToUserVO(user);
+                        return Result.success("登录成功")
+                                .put("token", token)
+                                .put("user", userVO);
+                    })
+                    .exceptionally(e -> asyncFailure(e, "用户登录异常：", "登录失败，请稍后重试"));
         } catch (Exception e) {
             log.error("用户登录异常：", e);
-            return Result.error("登录失败，请稍后重试");
+            return CompletableFuture.completedFuture(Result.error("登录失败，请稍后重试"));
         }
     }
 
@@ -199,35 +237,54 @@ public class UserController {
      * 重置密码
      */
     @PostMapping("/reset-password")
-    public Result resetPassword(@Valid @RequestBody ResetPasswordRequest request) {
+    public CompletableFuture<Result> resetPassword(@Valid @RequestBody ResetPasswordRequest request) {
         try {
             // 验证手机号格式
             if (!isValidPhone(request.getPhone())) {
-                return Result.error("手机号格式不正确");
+                return CompletableFuture.completedFuture(Result.error("手机号格式不正确"));
             }
 
             // 验证短信验证码
             if (!smsService.verifySmsCode(request.getPhone(), request.getSmsCode(), 3)) {
-                return Result.error("验证码错误或已过期");
+                return CompletableFuture.completedFuture(Result.error("验证码错误或已过期"));
             }
 
             // 检查手机号是否已注册
             if (!userService.isPhoneRegistered(request.getPhone())) {
-                return Result.error("手机号未注册");
+                return CompletableFuture.completedFuture(Result.error("手机号未注册"));
             }
 
             // 重置密码
-            if (userAuthService.changePassword(request.getPhone(), request.getNewPassword())) {
-                return Result.success("密码重置成功");
-            }
-
-            return Result.error("密码重置失败，请稍后重试");
+            return passwordHashingService.encode(request.getNewPassword())
+                    .thenApply(encodedPassword -> {
+                        if (userAuthService.changePassword(request.getPhone(), encodedPassword)) {
+                            return Result.success("密码重置成功");
+                        }
+                        return Result.error("密码重置失败，请稍后重试");
+                    })
+                    .exceptionally(e -> asyncFailure(e, "重置密码异常：", "系统异常，请稍后重试"));
         } catch (Exception e) {
             log.error("重置密码异常：", e);
-            return Result.error("系统异常，请稍后重试");
+            return CompletableFuture.completedFuture(Result.error("系统异常，请稍后重试"));
         }
     }
 
+    /**
+     * 异步处理失败：哈希线程池饱和时抛出由全局异常处理返回503，业务异常返回提示，其他异常记录日志
+     */
+    private Result asyncFailure(Throwable e, String logMessage, String errorMessage) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof ServiceBusyException) {
+            throw (ServiceBusyException) cause;
+        }
+        if (cause instanceof BusinessException) {
+            log.warn("{}{}", logMessage, cause.getMessage());
+            return Result.error(cause.getMessage());
+        }
+        log.error(logMessage, cause);
+        return Result.error(errorMessage);
+    }
+
     /**
      * 获取用户信息
      */
@@ -260,6 +317,22 @@ public class UserController {
         }
     }
 
+    /**
+     * 注销账号
+     */
+    @PostMapping("/cancel")
+    public Result cancelAccount(@RequestAttribute("userId") Long userId) {
+        try {
+            if (!userService.cancelAccount(userId)) {
+                return Result.error("用户不存在");
+            }
+            return Result.success("账号已注销");
+        } catch (Exception e) {
+            log.error("注销账号异常：userId={}", userId, e);
+            return Result.error("注销账号失败");
+        }
+    }
+
     /**
      * 转换为用户VO
      */
@@ -292,14 +365,28 @@ public class UserController {
      * 获取客户端IP
      */
     private String getClientIp(HttpServletRequest request) {
-        String ip = request.getHeader("X-Forwarded-For");
-        if (StringUtils.isBlank(ip) || "unknown".equalsIgnoreCase(ip)) {
-            ip = request.getHeader("X-Real-IP");
+        String remoteAddr = request.getRemoteAddr();
+        // 转发头可由客户端伪造，仅在直连方为可信代理时采信
+        if (!trustedProxies.contains(remoteAddr)) {
+            return remoteAddr;
+        }
+
+        String forwardedFor = request.getHeader("X-Forwarded-For");
+        if (StringUtils.isNotBlank(forwardedFor)) {
+            // 从右向左跳过可信代理，第一个非代理地址即客户端；更左侧的地址不可信
+            String[] hops = forwardedFor.split(",");
+            for (int i = hops.length - 1; i >= 0; i--) {
+                String hop = hops[i].trim();
+                if (StringUtils.isNotEmpty(hop) && !"unknown".equalsIgnoreCase(hop) && !trustedProxies.contains(hop)) {
+                    return hop;
+                }
+            }
         }
-        if (StringUtils.isBlank(ip) || "unknown".equalsIgnoreCase(ip)) {
-            ip = request.getRemoteAddr();
+        String realIp = request.getHeader("X-Real-IP");
+        if (StringUtils.isNotBlank(realIp) && !"unknown".equalsIgnoreCase(realIp)) {
+            return realIp.trim();
         }
-        return ip;
+        return remoteAddr;
     }
 
     /**
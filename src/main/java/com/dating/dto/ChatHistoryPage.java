@@ -0,0 +1,32 @@
+// 游标分页的聊天记录
+package com.dating.dto;
+
+import com.dating.entity.ChatMessage;
+import com.dating.util.CursorUtil;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+@Data
+public class ChatHistoryPage {
+    private List<ChatMessage> messages; // 按时间正序排列
+    private String nextCursor; // 继续向前翻页的游标，没有更早消息时为null
+    private Boolean hasMore;
+
+    /**
+     * 由按ID倒序、多查一条的结果构建分页
+     */
+    public static ChatHistoryPage of(List<ChatMessage> rows, int size) {
+        boolean hasMore = rows.size() > size;
+        List<ChatMessage> messages = new ArrayList<>(hasMore ? rows.subList(0, size) : rows);
+        Collections.reverse(messages);
+
+        ChatHistoryPage page = new ChatHistoryPage();
+        page.setMessages(messages);
+        page.setHasMore(hasMore);
+        page.setNextCursor(hasMore ? CursorUtil.encode(messages.get(0).getId()) : null);
+        return page;
+    }
+}
@@ -4,9 +4,12 @@ package com.dating.dto;
 import com.fasterxml.jackson.annotation.JsonFormat;
 import lombok.Data;
 import java.time.LocalDateTime;
+import java.util.List;
 
 @Data
 public class ChatMessageRequest {
+    private String type; // 帧类型，空或chat为聊天消息，presence.subscribe/presence.unsubscribe为在线状态订阅
+    private List<Long> userIds; // 订阅在线状态的用户ID
     private Long toUserId;
     private Integer messageType;
     private String content;
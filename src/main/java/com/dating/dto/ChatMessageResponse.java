@@ -1,12 +1,17 @@
 package com.dating.dto;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
 import lombok.Data;
 
 import java.time.LocalDateTime;
 
 @Data
 public class ChatMessageResponse {
+    @JsonSerialize(using = ToStringSerializer.class) // 雪花ID超出JS安全整数范围，按字符串输出
+    private Long id; // 消息ID，客户端按ID去重
+    private Long seq; // 会话内序号，客户端据此检测缺口
     private Long fromUserId;
     private Long toUserId;
     private Integer messageType;
@@ -0,0 +1,17 @@
+// 离线消息同步帧
+package com.dating.dto;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class ChatSyncFrame {
+    private String type = "sync";
+    private List<ChatMessageResponse> messages; // 按ID正序排列
+    @JsonSerialize(using = ToStringSerializer.class)
+    private Long lastMessageId; // 本帧最后一条消息ID
+    private Boolean hasMore; // 本次同步之后是否还有未同步消息
+}
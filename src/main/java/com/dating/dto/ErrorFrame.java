@@ -0,0 +1,12 @@
+// WebSocket错误帧
+package com.dating.dto;
+
+import lombok.Data;
+
+@Data
+public class ErrorFrame {
+    private String type = "error";
+    private Integer code;
+    private String message;
+    private Long retryAfterMillis; // 被限流时建议的重试等待时间
+}
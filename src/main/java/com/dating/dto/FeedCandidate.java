@@ -0,0 +1,17 @@
+// 推荐流候选用户卡片
+package com.dating.dto;
+
+import lombok.Data;
+
+@Data
+public class FeedCandidate {
+    private Long id;
+    private String nickname;
+    private String avatar;
+    private Integer gender;
+    private Integer age;
+    private String city;
+    private String profession;
+    private String introduction;
+    private Integer realNameVerified;
+}
@@ -0,0 +1,12 @@
+// 推荐流分页结果
+package com.dating.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class FeedPage {
+    private List<FeedCandidate> users;
+    private Boolean hasMore; // 是否还有更多候选
+}
@@ -0,0 +1,15 @@
+// 在线状态推送帧
+package com.dating.dto;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+public class PresenceFrame {
+    private String type = "presence";
+    private List<Long> online = new ArrayList<>(); // 上线的用户ID
+    private List<Long> offline = new ArrayList<>(); // 下线的用户ID
+    private Boolean snapshot = false; // true表示订阅时的全量状态，false表示增量变化
+}
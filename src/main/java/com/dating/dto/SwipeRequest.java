@@ -0,0 +1,15 @@
+// 批量滑动请求项
+package com.dating.dto;
+
+import lombok.Data;
+
+import javax.validation.constraints.NotNull;
+
+@Data
+public class SwipeRequest {
+    @NotNull(message = "目标用户不能为空")
+    private Long targetUserId;
+
+    @NotNull(message = "操作不能为空")
+    private Integer action; // 1喜欢 2不喜欢
+}
@@ -0,0 +1,16 @@
+package com.dating.entity;
+
+import lombok.Data;
+import java.time.LocalDateTime;
+
+// 会话摘要实体（每个用户的每个聊天对象一行）
+@Data
+public class ChatConversationSummary {
+    private Long userId;
+    private Long contactUserId;
+    private String lastMessage;
+    private Integer lastMessageType;
+    private LocalDateTime lastMessageTime;
+    private Integer unreadCount; // 写入时为未读增量
+    private LocalDateTime updatedAt;
+}
@@ -0,0 +1,15 @@
+package com.dating.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// 消息下发水位实体（每个用户的每个设备一行）
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatDeliveryWatermark {
+    private Long userId;
+    private String deviceId; // 空串为默认水位
+    private Long lastMessageId;
+}
@@ -1,13 +1,18 @@
 package com.dating.entity;
 
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
 import lombok.Data;
 import java.time.LocalDateTime;
 
 @Data
 public class ChatMessage {
+    @JsonSerialize(using = ToStringSerializer.class) // 雪花ID超出JS安全整数范围，按字符串输出
     private Long id;
     private Long fromUserId;
     private Long toUserId;
+    private String conversationId; // 较小用户ID_较大用户ID
+    private Long seq; // 会话内序号，单调递增
     private Integer messageType; // 1文本 2图片 3语音
     private String content;
     private String mediaUrl;
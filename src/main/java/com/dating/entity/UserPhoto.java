@@ -3,6 +3,7 @@ package com.dating.entity;
 
 import lombok.Data;
 import java.time.LocalDateTime;
+import java.util.Map;
 @Data
 public class UserPhoto {
     private Long id;
@@ -11,5 +12,7 @@ public class UserPhoto {
     private Integer isAvatar; // 0否 1是
     private Integer sortOrder;
     private Integer status;
+    private Integer variantStatus; // 0生成中 1已生成 2失败
+    private Map<Integer, String> variantUrls; // 尺寸 -> 缩略图地址，未生成时为原图地址
     private LocalDateTime createdAt;
 }
\ No newline at end of file
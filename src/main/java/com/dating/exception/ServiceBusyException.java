@@ -0,0 +1,15 @@
+package com.dating.exception;
+
+/**
+ * 资源饱和、拒绝受理请求时抛出，由全局异常处理返回503
+ */
+public class ServiceBusyException extends RuntimeException {
+
+    public ServiceBusyException(String message) {
+        super(message);
+    }
+
+    public ServiceBusyException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -2,6 +2,7 @@
 package com.dating.interceptor;
 
 import com.dating.util.JwtUtil;
+import io.jsonwebtoken.ExpiredJwtException;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -34,23 +35,22 @@ public class JwtInterceptor implements HandlerInterceptor {
             return false;
         }
 
-        // 验证token
-        if (!jwtUtil.validateToken(token)) {
+        // 一次验签同时得到用户ID与过期时间，重复出现的Token直接命中缓存
+        JwtUtil.VerifiedToken verified;
+        try {
+            verified = jwtUtil.verify(token);
+        } catch (ExpiredJwtException e) {
             response.setStatus(401);
-            response.getWriter().write("{\"code\":401,\"message\":\"Token无效\"}");
+            response.getWriter().write("{\"code\":401,\"message\":\"Token已过期\"}");
             return false;
-        }
-
-        // 检查是否过期
-        if (jwtUtil.isTokenExpired(token)) {
+        } catch (Exception e) {
             response.setStatus(401);
-            response.getWriter().write("{\"code\":401,\"message\":\"Token已过期\"}");
+            response.getWriter().write("{\"code\":401,\"message\":\"Token无效\"}");
             return false;
         }
 
-        // 将用户ID设置到request中，供后续使用
-        String userId = jwtUtil.getUserIdFromToken(token);
-        request.setAttribute("userId", userId);
+        // 将用户ID设置到request中，控制器通过JwtUtil.getUserIdFromRequest直接读取
+        request.setAttribute(JwtUtil.USER_ID_ATTRIBUTE, verified.getUserId());
 
         return true;
     }
@@ -0,0 +1,29 @@
+// 6. 会话摘要Mapper
+package com.dating.mapper;
+
+import com.dating.dto.ChatContact;
+import com.dating.entity.ChatConversationSummary;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+@Mapper
+public interface ChatConversationSummaryMapper {
+
+    /**
+     * 批量更新会话摘要，未读数按增量累加
+     */
+    int batchUpsert(@Param("summaries") List<ChatConversationSummary> summaries);
+
+    int resetUnread(@Param("userId") Long userId, @Param("contactUserId") Long contactUserId);
+
+    List<ChatContact> findContacts(@Param("userId") Long userId);
+
+    int deleteByUserId(@Param("userId") Long userId);
+
+    /**
+     * 根据聊天消息重建一批用户的全部会话摘要
+     */
+    int rebuildForUsers(@Param("userIds") List<Long> userIds);
+}
@@ -0,0 +1,30 @@
+// 7. 消息下发水位Mapper
+package com.dating.mapper;
+
+import com.dating.entity.ChatDeliveryWatermark;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+@Mapper
+public interface ChatDeliveryWatermarkMapper {
+
+    /**
+     * 设备的下发水位，该设备没有记录时取用户的默认水位
+     */
+    Long findLastMessageId(@Param("userId") Long userId, @Param("deviceId") String deviceId);
+
+    /**
+     * 推进水位，只增不减
+     */
+    int advance(@Param("userId") Long userId, @Param("deviceId") String deviceId,
+                @Param("lastMessageId") Long lastMessageId);
+
+    /**
+     * 批量推进水位
+     */
+    int batchAdvance(@Param("watermarks") List<ChatDeliveryWatermark> watermarks);
+
+    int deleteByUserId(@Param("userId") Long userId);
+}
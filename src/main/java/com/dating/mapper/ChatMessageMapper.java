@@ -13,11 +13,25 @@ public interface ChatMessageMapper {
 
     int insert(ChatMessage chatMessage);
 
+    int batchInsert(@Param("messages") List<ChatMessage> messages);
+
     List<ChatMessage> findBetweenUsers(@Param("userId1") Long userId1,
                                        @Param("userId2") Long userId2,
                                        @Param("offset") Integer offset,
                                        @Param("limit") Integer limit);
 
+    List<ChatMessage> findBetweenUsersBefore(@Param("userId1") Long userId1,
+                                             @Param("userId2") Long userId2,
+                                             @Param("beforeId") Long beforeId,
+                                             @Param("limit") Integer limit);
+
+    /**
+     * 离线同步：按ID顺序取发给用户且ID大于afterId的消息
+     */
+    List<ChatMessage> findIncomingAfter(@Param("userId") Long userId,
+                                        @Param("afterId") Long afterId,
+                                        @Param("limit") Integer limit);
+
     int markAsRead(@Param("toUserId") Long toUserId, @Param("fromUserId") Long fromUserId);
 
     int deleteByUserId(@Param("userId") Long userId);
@@ -30,8 +44,33 @@ public interface ChatMessageMapper {
                                      @Param("offset") Integer offset,
                                      @Param("limit") Integer limit);
 
+    List<ChatMessage> getChatHistoryBefore(@Param("userId1") Long userId1,
+                                           @Param("userId2") Long userId2,
+                                           @Param("beforeId") Long beforeId,
+                                           @Param("limit") Integer limit);
 
     int getUnreadCount(@Param("userId") Long userId);
 
+    List<ChatContact> getUnreadCountBySender(@Param("userId") Long userId);
+
+    List<ChatContact> getUnreadCountBySenderBefore(@Param("userId") Long userId, @Param("beforeId") Long beforeId);
+
+    /**
+     * 未读消息的ID与发送者，id >= fromId
+     */
+    List<ChatMessage> findUnreadSince(@Param("userId") Long userId, @Param("fromId") Long fromId);
+
     List<ChatContact> getChatContacts(@Param("userId") Long userId);
+
+    /**
+     * 按会话内序号区间查询，seq正序
+     */
+    List<ChatMessage> findBySeqRange(@Param("conversationId") String conversationId,
+                                     @Param("fromSeq") Long fromSeq,
+                                     @Param("toSeq") Long toSeq,
+                                     @Param("limit") Integer limit);
+
+    Long getMaxSeq(@Param("conversationId") String conversationId);
+
+    int backfillConversationId(@Param("limit") Integer limit);
 }
\ No newline at end of file
@@ -3,6 +3,7 @@ package com.dating.mapper;
 import com.dating.entity.User;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
+import java.time.LocalDate;
 import java.util.List;
 
 @Mapper
@@ -18,6 +19,11 @@ public interface UserMapper {
      */
     User findById(@Param("id") Long id);
 
+    /**
+     * 仅查询用户状态
+     */
+    Integer findStatusById(@Param("id") Long id);
+
     /**
      * 根据手机号查询用户
      */
@@ -42,4 +48,19 @@ public interface UserMapper {
      * 更新实名认证状态
      */
     int updateRealNameVerified(@Param("id") Long id, @Param("realNameVerified") Integer realNameVerified);
+
+    /**
+     * 按ID顺序分批查询未注销用户ID
+     */
+    List<Long> findIdsAfter(@Param("afterId") Long afterId, @Param("limit") Integer limit);
+
+    /**
+     * 推荐候选：按条件过滤的正常用户，按ID倒序（新用户优先）游标分页
+     */
+    List<User> findFeedCandidates(@Param("gender") Integer gender,
+                                  @Param("city") String city,
+                                  @Param("minBirthday") LocalDate minBirthday,
+                                  @Param("maxBirthday") LocalDate maxBirthday,
+                                  @Param("beforeId") Long beforeId,
+                                  @Param("limit") Integer limit);
 }
\ No newline at end of file
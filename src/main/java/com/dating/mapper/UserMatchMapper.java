@@ -12,6 +12,26 @@ public interface UserMatchMapper {
 
     int insert(UserMatch userMatch);
 
+    /**
+     * 写入或覆盖滑动记录，覆盖时保留原有的互相喜欢状态，由refreshMutualStatus统一计算
+     */
+    int upsert(UserMatch userMatch);
+
+    /**
+     * 批量写入或覆盖同一用户的多条滑动记录
+     */
+    int batchUpsert(@Param("userId") Long userId, @Param("matches") List<UserMatch> matches);
+
+    /**
+     * 按双方当前动作重新计算互相喜欢状态，一条语句同时更新双向记录
+     */
+    int refreshMutualStatus(@Param("userId") Long userId, @Param("targetUserId") Long targetUserId);
+
+    /**
+     * 批量重新计算用户与多个目标用户的互相喜欢状态
+     */
+    int refreshMutualStatusBatch(@Param("userId") Long userId, @Param("targetUserIds") List<Long> targetUserIds);
+
     UserMatch findByUserAndTarget(@Param("userId") Long userId, @Param("targetUserId") Long targetUserId);
 
     int updateById(UserMatch userMatch);
@@ -20,6 +40,17 @@ public interface UserMatchMapper {
 
     List<UserMatch> findMutualMatches(@Param("userId") Long userId);
 
+    int countMutualMatch(@Param("userId") Long userId, @Param("targetUserId") Long targetUserId);
+
+    /**
+     * 按目标用户ID顺序分批查询用户滑过的用户ID
+     */
+    List<Long> findTargetUserIdsAfter(@Param("userId") Long userId,
+                                      @Param("afterTargetUserId") Long afterTargetUserId,
+                                      @Param("limit") Integer limit);
+
+    int countByUserId(@Param("userId") Long userId);
+
     int deleteByUserId(@Param("userId") Long userId);
 
     int deleteOrphanedRecords();
@@ -5,6 +5,7 @@ import com.dating.entity.UserPhoto;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Mapper
@@ -16,9 +17,19 @@ public interface UserPhotoMapper {
 
     List<UserPhoto> findByUserId(@Param("userId") Long userId);
 
-    int clearAvatarFlag(@Param("userId") Long userId);
+    int updateVariantStatus(@Param("id") Long id, @Param("variantStatus") Integer variantStatus);
 
-    int setAsAvatar(@Param("photoId") Long photoId);
+    List<UserPhoto> findPendingVariants(@Param("before") LocalDateTime before, @Param("limit") int limit);
+
+    /**
+     * 设置头像并回写users.avatar，返回0表示照片不存在或不属于该用户
+     */
+    int setAvatar(@Param("userId") Long userId, @Param("photoId") Long photoId);
+
+    /**
+     * 按列表顺序批量更新照片的sort_order，只更新属于该用户的照片
+     */
+    int batchUpdateSortOrder(@Param("userId") Long userId, @Param("photoIds") List<Long> photoIds);
 
     int deleteByUserId(@Param("userId") Long userId);
 
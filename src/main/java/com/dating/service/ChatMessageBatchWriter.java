@@ -0,0 +1,338 @@
+// 10. 聊天消息批量写入服务（write-behind）
+package com.dating.service;
+
+import com.dating.entity.ChatMessage;
+import com.dating.mapper.ChatMessageMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 消息先入内存队列即返回，由单个写线程按条数或时间窗口合并为多行INSERT落库
+ * 单写线程按入队顺序写入，保证消息落库顺序与接收顺序一致；应用关闭时排空队列
+ * 入队与关闭通过读写锁互斥：关闭标记置位后不再接受消息，已接受的消息都在写线程最后一次排空之前入队
+ * 入队前先写入待落库消息日志，落库成功后删除；写入失败或节点宕机时消息留在日志中，由恢复任务按主键幂等补写
+ */
+@Slf4j
+@Service
+public class ChatMessageBatchWriter {
+
+    private static final int MAX_RETRY = 3;
+
+    @Autowired
+    private ChatMessageMapper chatMessageMapper;
+
+    @Autowired
+    private ConversationSummaryService conversationSummaryService;
+
+    @Autowired
+    private UnreadCounterService unreadCounterService;
+
+    @Autowired
+    private ChatMessageJournal chatMessageJournal;
+
+    @Value("${chat.write-behind.batch-size:200}")
+    private int batchSize;
+
+    @Value("${chat.write-behind.flush-interval-ms:20}")
+    private long flushIntervalMs;
+
+    @Value("${chat.write-behind.queue-capacity:100000}")
+    private int queueCapacity;
+
+    @Value("${chat.write-behind.enqueue-timeout-ms:1000}")
+    private long enqueueTimeoutMs;
+
+    @Value("${chat.write-behind.recovery-age-ms:300000}")
+    private long recoveryAgeMs;
+
+    private LinkedBlockingQueue<ChatMessage> queue;
+    private Thread writerThread;
+    private volatile boolean running;
+    private final ReentrantReadWriteLock lifecycleLock = new ReentrantReadWriteLock();
+
+    // 待落库消息的最大seq：会话键 -> seq，Redis序号计数器丢失后重建起点时参考
+    private final ConcurrentHashMap<String, Long> pendingMaxSeq = new ConcurrentHashMap<>();
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong recovered = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        queue = new LinkedBlockingQueue<>(queueCapacity);
+        running = true;
+        writerThread = new Thread(this::runLoop, "Dating-ChatWriter");
+        writerThread.start();
+    }
+
+    /**
+     * 消息入队，队列满时短暂阻塞形成背压，超时则拒绝
+     */
+    public void enqueue(ChatMessage chatMessage) {
+        lifecycleLock.readLock().lock();
+        try {
+            if (!running) {
+                throw new IllegalStateException("消息写入服务已关闭");
+            }
+            chatMessageJournal.record(chatMessage);
+            trackPending(chatMessage);
+            if (!queue.offer(chatMessage, enqueueTimeoutMs, TimeUnit.MILLISECONDS)) {
+                discard(chatMessage);
+                throw new RuntimeException("消息写入队列已满，请稍后重试");
+            }
+        } catch (InterruptedException e) {
+            discard(chatMessage);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("消息入队被中断", e);
+        } finally {
+            lifecycleLock.readLock().unlock();
+        }
+    }
+
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queued", queue.size());
+        stats.put("written", written.get());
+        stats.put("failed", failed.get());
+        stats.put("recovered", recovered.get());
+        try {
+            stats.put("journal", chatMessageJournal.size());
+        } catch (Exception e) {
+            stats.put("journal", -1);
+        }
+        return stats;
+    }
+
+    /**
+     * 本节点尚未落库的消息中该会话的最大seq，没有返回null
+     */
+    public Long getMaxPendingSeq(String conversationId) {
+        return pendingMaxSeq.get(conversationId);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // 等待进行中的入队完成后再置位，之后的入队全部被拒绝
+        lifecycleLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            lifecycleLock.writeLock().unlock();
+        }
+        writerThread.interrupt();
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!queue.isEmpty()) {
+            log.error("消息写入服务关闭时仍有{}条消息未落库，保留在待落库消息日志中由恢复任务补写", queue.size());
+        }
+    }
+
+    private void runLoop() {
+        List<ChatMessage> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                collectBatch(batch);
+            } catch (InterruptedException e) {
+                // 关闭信号，已取出的消息在下方落库后进入排空流程
+            }
+            flush(batch);
+        }
+
+        // 关闭时排空剩余消息，先清除中断标志避免影响数据库IO
+        Thread.interrupted();
+        while (!queue.isEmpty()) {
+            queue.drainTo(batch, batchSize);
+            flush(batch);
+        }
+        log.info("消息写入服务已排空并停止");
+    }
+
+    /**
+     * 等待第一条消息，然后在时间窗口内凑满一批
+     */
+    private void collectBatch(List<ChatMessage> batch) throws InterruptedException {
+        ChatMessage first = queue.poll(1, TimeUnit.SECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+            if (batch.size() >= batchSize) {
+                break;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            ChatMessage next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void flush(List<ChatMessage> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        boolean inserted = false;
+        for (int attempt = 1; attempt <= MAX_RETRY && !inserted; attempt++) {
+            try {
+                chatMessageMapper.batchInsert(batch);
+                inserted = true;
+            } catch (Exception e) {
+                log.warn("批量写入{}条消息失败，第{}次重试", batch.size(), attempt, e);
+                sleepQuietly(attempt * 100L);
+            }
+        }
+        // 派生数据维护放在重试之外，失败不会导致已提交的批次被重复插入
+        if (inserted) {
+            onSaved(batch);
+            chatMessageJournal.remove(batch);
+            written.addAndGet(batch.size());
+            untrackPending(batch);
+            batch.clear();
+            return;
+        }
+
+        // 批量写入持续失败时逐条写入，隔离出问题消息，顺序不变
+        List<ChatMessage> saved = new ArrayList<>(batch.size());
+        List<ChatMessage> done = new ArrayList<>(batch.size());
+        for (ChatMessage chatMessage : batch) {
+            if (insertOne(chatMessage, saved, done)) {
+                continue;
+            }
+            // 已推送给接收方，不能丢弃：保留在待落库消息日志中，由恢复任务补写
+            failed.incrementAndGet();
+            log.error("消息落库失败，保留在待落库消息日志中等待补写：id={}, {} -> {}",
+                    chatMessage.getId(), chatMessage.getFromUserId(), chatMessage.getToUserId());
+        }
+        onSaved(saved);
+        chatMessageJournal.remove(done);
+        written.addAndGet(saved.size());
+        untrackPending(batch);
+        batch.clear();
+    }
+
+    /**
+     * 补写待落库消息日志中超过 recovery-age-ms 仍未删除的消息：宕机节点遗留或多次写入失败的消息
+     * 按主键去重，已落库的消息只从日志中删除，不重复维护派生数据
+     *
+     * @return 本次从日志中清除的消息数
+     */
+    public int recoverStale() {
+        List<ChatMessage> stale = chatMessageJournal.findStale(
+                LocalDateTime.now().minusNanos(TimeUnit.MILLISECONDS.toNanos(recoveryAgeMs)), batchSize);
+        if (stale.isEmpty()) {
+            return 0;
+        }
+        List<ChatMessage> saved = new ArrayList<>(stale.size());
+        List<ChatMessage> done = new ArrayList<>(stale.size());
+        for (ChatMessage chatMessage : stale) {
+            if (!insertOne(chatMessage, saved, done)) {
+                log.warn("补写消息失败，下次继续：id={}", chatMessage.getId());
+            }
+        }
+        onSaved(saved);
+        chatMessageJournal.remove(done);
+        recovered.addAndGet(saved.size());
+        return done.size();
+    }
+
+    /**
+     * 单条写入：成功加入saved与done；主键冲突说明已经落库，只加入done
+     */
+    private boolean insertOne(ChatMessage chatMessage, List<ChatMessage> saved, List<ChatMessage> done) {
+        try {
+            chatMessageMapper.insert(chatMessage);
+            saved.add(chatMessage);
+            done.add(chatMessage);
+            return true;
+        } catch (DuplicateKeyException e) {
+            done.add(chatMessage);
+            return true;
+        } catch (Exception e) {
+            log.warn("消息落库失败：id={}", chatMessage.getId(), e);
+            return false;
+        }
+    }
+
+    /**
+     * 落库后维护派生数据：会话摘要与未读计数
+     */
+    private void onSaved(List<ChatMessage> saved) {
+        try {
+            conversationSummaryService.onMessagesSaved(saved);
+        } catch (Exception e) {
+            log.error("更新会话摘要失败，消息数：{}", saved.size(), e);
+        }
+        try {
+            unreadCounterService.onMessagesSaved(saved);
+        } catch (Exception e) {
+            log.error("更新未读计数失败，消息数：{}", saved.size(), e);
+        }
+    }
+
+    private void trackPending(ChatMessage chatMessage) {
+        if (chatMessage.getConversationId() != null && chatMessage.getSeq() != null) {
+            pendingMaxSeq.merge(chatMessage.getConversationId(), chatMessage.getSeq(), Math::max);
+        }
+    }
+
+    // 只在记录的仍是这条消息的seq时移除；更大seq的消息仍在队列中则保留
+    private void untrackPending(ChatMessage chatMessage) {
+        if (chatMessage.getConversationId() != null && chatMessage.getSeq() != null) {
+            pendingMaxSeq.remove(chatMessage.getConversationId(), chatMessage.getSeq());
+        }
+    }
+
+    // 未能入队的消息：调用方收到异常，不会推送，也不需要补写
+    private void discard(ChatMessage chatMessage) {
+        untrackPending(chatMessage);
+        chatMessageJournal.remove(Collections.singletonList(chatMessage));
+    }
+
+    private void untrackPending(List<ChatMessage> messages) {
+        for (ChatMessage chatMessage : messages) {
+            untrackPending(chatMessage);
+        }
+    }
+
+    private void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            // 关闭过程中不中断重试，保留中断标志供写循环退出
+            Thread.currentThread().interrupt();
+        }
+    }
+}
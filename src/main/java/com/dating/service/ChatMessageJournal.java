@@ -0,0 +1,93 @@
+// 22. 待落库消息日志
+package com.dating.service;
+
+import com.dating.entity.ChatMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 消息入内存队列前先写入Redis哈希 chat:write-behind:journal（消息ID -> JSON），落库成功后删除
+ * 节点宕机时队列中的消息、逐条重试后仍写入失败的消息都留在这里，由恢复任务补写（死信）
+ */
+@Slf4j
+@Service
+public class ChatMessageJournal {
+
+    static final String JOURNAL_KEY = "chat:write-behind:journal";
+    private static final int SCAN_COUNT = 500;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * 记录待落库消息，失败时抛出异常，调用方拒绝本次发送
+     */
+    public void record(ChatMessage chatMessage) {
+        try {
+            stringRedisTemplate.opsForHash().put(JOURNAL_KEY, String.valueOf(chatMessage.getId()),
+                    objectMapper.writeValueAsString(chatMessage));
+        } catch (Exception e) {
+            throw new RuntimeException("消息暂存失败，请稍后重试", e);
+        }
+    }
+
+    /**
+     * 删除已落库的消息；失败时只记录日志，恢复任务补写时按主键去重
+     */
+    public void remove(List<ChatMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        Object[] ids = new Object[messages.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = String.valueOf(messages.get(i).getId());
+        }
+        try {
+            stringRedisTemplate.opsForHash().delete(JOURNAL_KEY, ids);
+        } catch (Exception e) {
+            log.warn("删除待落库消息日志失败，消息数：{}", ids.length, e);
+        }
+    }
+
+    /**
+     * 发送时间早于 createdBefore 的消息：节点宕机遗留或多次写入失败，最多返回limit条
+     */
+    public List<ChatMessage> findStale(LocalDateTime createdBefore, int limit) {
+        List<ChatMessage> stale = new ArrayList<>();
+        ScanOptions options = ScanOptions.scanOptions().count(SCAN_COUNT).build();
+        try (Cursor<Map.Entry<Object, Object>> cursor = stringRedisTemplate.opsForHash().scan(JOURNAL_KEY, options)) {
+            while (cursor.hasNext() && stale.size() < limit) {
+                Map.Entry<Object, Object> entry = cursor.next();
+                ChatMessage chatMessage;
+                try {
+                    chatMessage = objectMapper.readValue(entry.getValue().toString(), ChatMessage.class);
+                } catch (Exception e) {
+                    log.error("无法解析待落库消息，已跳过：id={}", entry.getKey(), e);
+                    continue;
+                }
+                if (chatMessage.getCreatedAt() == null || chatMessage.getCreatedAt().isBefore(createdBefore)) {
+                    stale.add(chatMessage);
+                }
+            }
+        }
+        return stale;
+    }
+
+    public long size() {
+        Long size = stringRedisTemplate.opsForHash().size(JOURNAL_KEY);
+        return size != null ? size : 0;
+    }
+}
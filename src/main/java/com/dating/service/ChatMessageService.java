@@ -1,13 +1,16 @@
 // 5. 聊天消息服务
 package com.dating.service;
 
+import com.dating.dto.ChatHistoryPage;
 import com.dating.entity.ChatMessage;
-import com.dating.entity.UserMatch;
 import com.dating.mapper.ChatMessageMapper;
+import com.dating.util.CursorUtil;
+import com.dating.util.TransactionUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collections;
 import java.util.List;
 
 @Service
@@ -22,6 +25,18 @@ public class ChatMessageService {
     @Autowired
     private MatchService matchService;
 
+    @Autowired
+    private ConversationSummaryService conversationSummaryService;
+
+    @Autowired
+    private UnreadCounterService unreadCounterService;
+
+    @Autowired
+    private OfflineSyncService offlineSyncService;
+
+    @Autowired
+    private ConversationSequenceService conversationSequenceService;
+
     /**
      * 发送消息
      */
@@ -34,16 +49,19 @@ public class ChatMessageService {
         }
 
         // 验证两个用户是否互相喜欢（可选验证，根据业务需求）
-        List<UserMatch> mutualMatches = matchService.getMutualMatches(message.getFromUserId());
-        boolean canChat = mutualMatches.stream()
-                .anyMatch(match -> match.getTargetUserId().equals(message.getToUserId()));
-
-        if (!canChat) {
+        if (!matchService.isMutualMatch(message.getFromUserId(), message.getToUserId())) {
             throw new IllegalArgumentException("只有互相喜欢的用户才能聊天");
         }
 
         try {
-            return chatMessageMapper.insert(message) > 0;
+            conversationSequenceService.assign(message);
+            boolean saved = chatMessageMapper.insert(message) > 0;
+            if (saved) {
+                List<ChatMessage> savedMessages = Collections.singletonList(message);
+                conversationSummaryService.onMessagesSaved(savedMessages);
+                TransactionUtil.afterCommit(() -> unreadCounterService.onMessagesSaved(savedMessages));
+            }
+            return saved;
         } catch (Exception e) {
             throw new RuntimeException("发送消息失败", e);
         }
@@ -61,6 +79,19 @@ public class ChatMessageService {
         return chatMessageMapper.findBetweenUsers(userId1, userId2, offset, size);
     }
 
+    /**
+     * 游标分页获取两个用户之间的聊天记录
+     */
+    public ChatHistoryPage getChatMessagesPage(Long userId1, Long userId2, String cursor, Integer size) {
+        if (!dataIntegrityService.validateTwoDifferentUsers(userId1, userId2)) {
+            return null;
+        }
+
+        Long beforeId = CursorUtil.decode(cursor);
+        List<ChatMessage> rows = chatMessageMapper.findBetweenUsersBefore(userId1, userId2, beforeId, size + 1);
+        return ChatHistoryPage.of(rows, size);
+    }
+
     /**
      * 标记消息为已读
      */
@@ -71,7 +102,10 @@ public class ChatMessageService {
         }
 
         try {
-            return chatMessageMapper.markAsRead(userId, fromUserId) > 0;
+            boolean updated = chatMessageMapper.markAsRead(userId, fromUserId) > 0;
+            conversationSummaryService.onRead(userId, fromUserId);
+            TransactionUtil.afterCommit(() -> unreadCounterService.reset(userId, fromUserId));
+            return updated;
         } catch (Exception e) {
             throw new RuntimeException("标记消息已读失败", e);
         }
@@ -83,5 +117,8 @@ public class ChatMessageService {
     @Transactional
     public void deleteChatMessagesByUserId(Long userId) {
         chatMessageMapper.deleteByUserId(userId);
+        conversationSummaryService.deleteByUserId(userId);
+        TransactionUtil.afterCommit(() -> unreadCounterService.evict(userId));
+        offlineSyncService.deleteByUserId(userId);
     }
 }
\ No newline at end of file
@@ -2,12 +2,15 @@
 package com.dating.service;
 
 import com.dating.dto.ChatContact;
+import com.dating.dto.ChatHistoryPage;
 import com.dating.entity.ChatMessage;
 import com.dating.mapper.ChatMessageMapper;
+import com.dating.util.CursorUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
+import java.util.Map;
 
 @Service
 public class ChatService {
@@ -15,8 +18,27 @@ public class ChatService {
     @Autowired
     private ChatMessageMapper chatMessageMapper;
 
+    @Autowired
+    private ChatMessageBatchWriter chatMessageBatchWriter;
+
+    @Autowired
+    private ConversationSummaryService conversationSummaryService;
+
+    @Autowired
+    private UnreadCounterService unreadCounterService;
+
+    @Autowired
+    private ConversationSequenceService conversationSequenceService;
+
+    /**
+     * 保存消息：入队后立即返回，由批量写入服务异步落库
+     */
     public ChatMessage saveMessage(ChatMessage chatMessage) {
-        chatMessageMapper.insert(chatMessage);
+        if (chatMessage.getIsRead() == null) {
+            chatMessage.setIsRead(0);
+        }
+        conversationSequenceService.assign(chatMessage);
+        chatMessageBatchWriter.enqueue(chatMessage);
         return chatMessage;
     }
 
@@ -25,15 +47,49 @@ public class ChatService {
         return chatMessageMapper.getChatHistory(userId1, userId2, offset, size);
     }
 
+    /**
+     * 游标分页获取聊天记录，cursor为空时从最新消息开始
+     */
+    public ChatHistoryPage getChatHistoryPage(Long userId1, Long userId2, String cursor, Integer size) {
+        Long beforeId = CursorUtil.decode(cursor);
+        List<ChatMessage> rows = chatMessageMapper.getChatHistoryBefore(userId1, userId2, beforeId, size + 1);
+        return ChatHistoryPage.of(rows, size);
+    }
+
+    /**
+     * 按会话内序号区间获取消息，用于客户端补齐缺口
+     */
+    public List<ChatMessage> getMessagesBySeqRange(Long userId1, Long userId2, Long fromSeq, Long toSeq, Integer limit) {
+        if (fromSeq == null || toSeq == null || fromSeq < 1 || toSeq < fromSeq) {
+            throw new IllegalArgumentException("序号区间无效");
+        }
+        long maxToSeq = fromSeq + limit - 1;
+        return chatMessageMapper.findBySeqRange(ConversationSequenceService.conversationId(userId1, userId2),
+                fromSeq, Math.min(toSeq, maxToSeq), limit);
+    }
+
     public void markAsRead(Long fromUserId, Long toUserId) {
-        chatMessageMapper.markAsRead(fromUserId, toUserId);
+        chatMessageMapper.markAsRead(toUserId, fromUserId);
+        conversationSummaryService.onRead(toUserId, fromUserId);
+        unreadCounterService.reset(toUserId, fromUserId);
     }
 
+    /**
+     * 未读总数由Redis计数提供
+     */
     public int getUnreadCount(Long userId) {
-        return chatMessageMapper.getUnreadCount(userId);
+        return unreadCounterService.getTotal(userId);
     }
 
+    /**
+     * 联系人列表读取会话摘要，未读数以Redis计数为准
+     */
     public List<ChatContact> getChatContacts(Long userId) {
-        return chatMessageMapper.getChatContacts(userId);
+        List<ChatContact> contacts = conversationSummaryService.getContacts(userId);
+        Map<Long, Integer> unread = unreadCounterService.getBreakdown(userId);
+        for (ChatContact contact : contacts) {
+            contact.setUnreadCount(unread.getOrDefault(contact.getContactUserId(), 0));
+        }
+        return contacts;
     }
 }
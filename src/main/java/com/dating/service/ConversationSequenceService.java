@@ -0,0 +1,141 @@
+// 15. 会话序号服务
+package com.dating.service;
+
+import com.dating.entity.ChatMessage;
+import com.dating.mapper.ChatMessageMapper;
+import com.dating.util.SnowflakeIdGenerator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 会话内序号：Redis哈希 chat:seq:{conversationId} 记录当前seq与取得该seq的消息ID
+ * 消息ID与seq在同一个脚本中一起校验分配：ID必须大于上一条消息的ID才分配下一个seq，否则换新ID重试，
+ * 因此同一会话内seq顺序与ID顺序一致（跨节点时由脚本串行化）
+ * 计数器不存在（首次/闲置过期/Redis重启）时以数据库与本节点待落库消息中的最大seq为起点
+ * 分配不到seq时拒绝发送，不产生没有seq的消息
+ */
+@Slf4j
+@Service
+public class ConversationSequenceService {
+
+    private static final String SEQ_KEY_PREFIX = "chat:seq:";
+    private static final long KEY_TTL_SECONDS = TimeUnit.DAYS.toSeconds(7);
+    // 同一会话并发发送时ID落后者换新ID重试，每次失败都意味着其他消息已分配成功，按总时长限制重试
+    private static final long ASSIGN_TIMEOUT_MILLIS = 1000;
+    // 其他节点时钟超前不超过该值时，等待本地时钟追上后重试
+    private static final long MAX_CLOCK_WAIT_MILLIS = 500;
+
+    // ARGV: TTL、消息ID、起点seq（空串表示不初始化）
+    // 返回 {seq}；计数器不存在且未给起点返回 {-1}；消息ID不大于上一条返回 {0, 上一条消息ID}
+    // 消息ID超出Lua数值精度，按十进制字符串比较（先比长度再比字典序）
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> ALLOCATE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 0 then " +
+            "  if ARGV[3] == '' then return {-1} end " +
+            "  redis.call('HSET', KEYS[1], 'seq', ARGV[3], 'id', '0') " +
+            "end " +
+            "local last = redis.call('HGET', KEYS[1], 'id') " +
+            "if #ARGV[2] < #last or (#ARGV[2] == #last and ARGV[2] <= last) then return {0, last} end " +
+            "local seq = redis.call('HINCRBY', KEYS[1], 'seq', 1) " +
+            "redis.call('HSET', KEYS[1], 'id', ARGV[2]) " +
+            "redis.call('EXPIRE', KEYS[1], ARGV[1]) " +
+            "return {seq}", List.class);
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private ChatMessageMapper chatMessageMapper;
+
+    @Autowired
+    private ChatMessageBatchWriter chatMessageBatchWriter;
+
+    @Autowired
+    private SnowflakeIdGenerator snowflakeIdGenerator;
+
+    /**
+     * 会话键：较小用户ID_较大用户ID
+     */
+    public static String conversationId(Long userId1, Long userId2) {
+        return Math.min(userId1, userId2) + "_" + Math.max(userId1, userId2);
+    }
+
+    /**
+     * 写入前分配消息ID、会话键、会话内序号和发送时间，推送与落库使用同一份值
+     * 分配失败时抛出异常，调用方拒绝本次发送
+     */
+    public void assign(ChatMessage message) {
+        String conversationId = conversationId(message.getFromUserId(), message.getToUserId());
+        message.setConversationId(conversationId);
+        String key = SEQ_KEY_PREFIX + conversationId;
+        String seed = "";
+        long deadline = System.currentTimeMillis() + ASSIGN_TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            long id = snowflakeIdGenerator.nextId();
+            List<?> result = allocate(key, id, seed);
+            long seq = ((Number) result.get(0)).longValue();
+            if (seq > 0) {
+                message.setId(id);
+                message.setSeq(seq);
+                if (message.getCreatedAt() == null) {
+                    message.setCreatedAt(LocalDateTime.now());
+                }
+                return;
+            }
+            if (seq < 0) {
+                // 计数器不存在，带起点重试
+                seed = String.valueOf(seedFor(conversationId));
+            } else {
+                // 并发发送或其他节点时钟超前：等本地时钟越过上一条消息的时间后换新ID
+                waitPast(Long.parseLong(result.get(1).toString()));
+            }
+        }
+        throw new IllegalStateException("分配会话序号失败：conversationId=" + conversationId);
+    }
+
+    private List<?> allocate(String key, long id, String seed) {
+        List<?> result;
+        try {
+            result = stringRedisTemplate.execute(ALLOCATE_SCRIPT, Collections.singletonList(key),
+                    String.valueOf(KEY_TTL_SECONDS), String.valueOf(id), seed);
+        } catch (Exception e) {
+            throw new IllegalStateException("分配会话序号失败，Redis不可用", e);
+        }
+        if (result == null || result.isEmpty()) {
+            throw new IllegalStateException("Redis未返回序号");
+        }
+        return result;
+    }
+
+    /**
+     * 起点：数据库与本节点待落库消息中较大的seq
+     */
+    private long seedFor(String conversationId) {
+        Long maxSeq = chatMessageMapper.getMaxSeq(conversationId);
+        Long pendingSeq = chatMessageBatchWriter.getMaxPendingSeq(conversationId);
+        return Math.max(maxSeq != null ? maxSeq : 0L, pendingSeq != null ? pendingSeq : 0L);
+    }
+
+    private void waitPast(long lastId) {
+        long wait = SnowflakeIdGenerator.timestampOf(lastId) - System.currentTimeMillis();
+        if (wait > MAX_CLOCK_WAIT_MILLIS) {
+            throw new IllegalStateException("本节点时钟落后过多，无法分配会话序号");
+        }
+        if (wait >= 0) {
+            try {
+                Thread.sleep(wait + 1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("分配会话序号被中断", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+// 11. 会话摘要服务
+package com.dating.service;
+
+import com.dating.dto.ChatContact;
+import com.dating.entity.ChatConversationSummary;
+import com.dating.entity.ChatMessage;
+import com.dating.mapper.ChatConversationSummaryMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 维护每个用户的会话摘要（最后一条消息、时间、未读数），联系人列表直接读取摘要表
+ */
+@Slf4j
+@Service
+public class ConversationSummaryService {
+
+    private static final int MAX_MESSAGE_LENGTH = 200;
+
+    @Autowired
+    private ChatConversationSummaryMapper summaryMapper;
+
+    /**
+     * 消息落库后增量更新双方的会话摘要，同一批内相同会话只写一行
+     */
+    public void onMessagesSaved(List<ChatMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        Map<String, ChatConversationSummary> summaries = new LinkedHashMap<>();
+        for (ChatMessage message : messages) {
+            // 发送方：更新最后一条消息，未读数不变
+            merge(summaries, message.getFromUserId(), message.getToUserId(), message, 0);
+            // 接收方：未读数加一
+            merge(summaries, message.getToUserId(), message.getFromUserId(), message, 1);
+        }
+
+        try {
+            summaryMapper.batchUpsert(new ArrayList<>(summaries.values()));
+        } catch (Exception e) {
+            // 摘要只是派生数据，失败时由定期重建修复
+            log.error("更新会话摘要失败，消息数：{}", messages.size(), e);
+        }
+    }
+
+    /**
+     * 标记已读后清零未读数
+     */
+    public void onRead(Long userId, Long contactUserId) {
+        summaryMapper.resetUnread(userId, contactUserId);
+    }
+
+    public List<ChatContact> getContacts(Long userId) {
+        return summaryMapper.findContacts(userId);
+    }
+
+    /**
+     * 根据聊天消息重建一批用户的会话摘要
+     */
+    @Transactional
+    public void rebuild(List<Long> userIds) {
+        summaryMapper.rebuildForUsers(userIds);
+    }
+
+    /**
+     * 删除用户相关的会话摘要（用户注销时调用）
+     */
+    public void deleteByUserId(Long userId) {
+        summaryMapper.deleteByUserId(userId);
+    }
+
+    private void merge(Map<String, ChatConversationSummary> summaries, Long userId, Long contactUserId,
+                       ChatMessage message, int unreadDelta) {
+        ChatConversationSummary summary = summaries.computeIfAbsent(userId + "_" + contactUserId, key -> {
+            ChatConversationSummary created = new ChatConversationSummary();
+            created.setUserId(userId);
+            created.setContactUserId(contactUserId);
+            created.setUnreadCount(0);
+            return created;
+        });
+        summary.setLastMessage(StringUtils.left(message.getContent(), MAX_MESSAGE_LENGTH));
+        summary.setLastMessageType(message.getMessageType());
+        summary.setLastMessageTime(message.getCreatedAt());
+        summary.setUnreadCount(summary.getUnreadCount() + unreadDelta);
+    }
+}
@@ -1,17 +1,64 @@
 // 1. 数据完整性验证服务
 package com.dating.service;
 
-import com.dating.entity.User;
 import com.dating.mapper.UserMapper;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 用户状态在各节点本地缓存，状态变更后经 user:status:invalidate 频道通知所有节点失效
+ */
+@Slf4j
 @Service
-public class DataIntegrityService {
+public class DataIntegrityService implements MessageListener {
+
+    private static final String INVALIDATE_CHANNEL = "user:status:invalidate";
 
     @Autowired
     private UserMapper userMapper;
 
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${cache.user-status.maximum-size:100000}")
+    private long maximumSize;
+
+    @Value("${cache.user-status.expire-seconds:300}")
+    private long expireSeconds;
+
+    // 用户状态缓存：userId -> status，用户不存在时不缓存，注册后立即可用
+    // 不经过UserService直接修改数据库的状态变更，或广播丢失时，最多在过期时间后生效
+    private LoadingCache<Long, Integer> userStatusCache;
+
+    @PostConstruct
+    public void init() {
+        userStatusCache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build(this::loadUserStatus);
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(INVALIDATE_CHANNEL));
+    }
+
     /**
      * 验证用户是否存在且状态正常
      */
@@ -20,8 +67,8 @@ public class DataIntegrityService {
             return false;
         }
 
-        User user = userMapper.findById(userId);
-        return user != null && user.getStatus() == 1; // 1表示正常状态
+        Integer status = userStatusCache.get(userId);
+        return status != null && status == 1; // 1表示正常状态
     }
 
     /**
@@ -44,4 +91,50 @@ public class DataIntegrityService {
     public boolean validateTwoDifferentUsers(Long userId1, Long userId2) {
         return validateTwoUsers(userId1, userId2) && validateNotSameUser(userId1, userId2);
     }
-}
\ No newline at end of file
+
+    /**
+     * 用户状态变更（冻结、注销等）后失效本地缓存并广播给其他节点
+     */
+    public void invalidateUserStatus(Long userId) {
+        userStatusCache.invalidate(userId);
+        try {
+            stringRedisTemplate.convertAndSend(INVALIDATE_CHANNEL, String.valueOf(userId));
+        } catch (Exception e) {
+            log.error("广播用户{}状态缓存失效失败", userId, e);
+        }
+    }
+
+    /**
+     * 接收其他节点（含本节点）的失效广播
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            userStatusCache.invalidate(Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            log.error("处理用户状态缓存失效广播失败", e);
+        }
+    }
+
+    /**
+     * 用户状态缓存指标
+     */
+    public Map<String, Object> getUserStatusCacheStats() {
+        CacheStats stats = userStatusCache.stats();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("size", userStatusCache.estimatedSize());
+        metrics.put("hitCount", stats.hitCount());
+        metrics.put("missCount", stats.missCount());
+        metrics.put("hitRate", stats.hitRate());
+        metrics.put("loadCount", stats.loadCount());
+        metrics.put("loadFailureCount", stats.loadFailureCount());
+        metrics.put("averageLoadMillis", stats.averageLoadPenalty() / 1_000_000.0);
+        metrics.put("evictionCount", stats.evictionCount());
+        return metrics;
+    }
+
+    private Integer loadUserStatus(Long userId) {
+        // 返回null时Caffeine不缓存该条目
+        return userMapper.findStatusById(userId);
+    }
+}
@@ -0,0 +1,384 @@
+// 18. 推荐流服务
+package com.dating.service;
+
+import com.dating.dto.FeedCandidate;
+import com.dating.dto.FeedPage;
+import com.dating.entity.User;
+import com.dating.mapper.UserMapper;
+import com.dating.mapper.UserMatchMapper;
+import com.dating.util.BloomFilter;
+import com.dating.websocket.ClusterNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.Period;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 推荐流：按性别/城市/年龄从用户表游标扫描候选，已滑过的用户用每个用户一个布隆过滤器排除
+ * 每个用户+筛选条件缓存一个候选缓冲区，取走一页后低于预取水位时异步补充下一批
+ * 过滤器与缓冲区在各节点本地，滑动与注销经 feed:events 频道广播，其他节点据此更新本地已加载的过滤器
+ */
+@Slf4j
+@Service
+public class DiscoveryFeedService implements MessageListener {
+
+    private static final String EVENT_CHANNEL = "feed:events";
+    private static final String EVENT_SWIPE = "swipe";
+    private static final String EVENT_EVICT = "evict";
+
+    @Autowired
+    private UserMapper userMapper;
+
+    @Autowired
+    private UserMatchMapper userMatchMapper;
+
+    @Autowired
+    @Qualifier("taskExecutor")
+    private Executor taskExecutor;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Autowired
+    private ClusterNode clusterNode;
+
+    @Value("${feed.scan-page-size:200}")
+    private int scanPageSize;
+
+    @Value("${feed.max-scan-pages:10}")
+    private int maxScanPages;
+
+    @Value("${feed.prefetch-size:60}")
+    private int prefetchSize;
+
+    @Value("${feed.cache.maximum-size:10000}")
+    private long cacheMaximumSize;
+
+    @Value("${feed.cache.expire-minutes:30}")
+    private long cacheExpireMinutes;
+
+    @Value("${feed.swipe-filter.fpp:0.01}")
+    private double swipeFilterFpp;
+
+    // 用户ID -> 已滑过用户的布隆过滤器
+    private LoadingCache<Long, SwipeFilter> swipeFilters;
+
+    // 用户ID:筛选条件 -> 候选缓冲区
+    private Cache<String, FeedState> feeds;
+
+    @PostConstruct
+    public void init() {
+        swipeFilters = Caffeine.newBuilder()
+                .maximumSize(cacheMaximumSize)
+                .expireAfterAccess(cacheExpireMinutes, TimeUnit.MINUTES)
+                .build(this::loadSwipeFilter);
+        feeds = Caffeine.newBuilder()
+                .maximumSize(cacheMaximumSize)
+                .expireAfterAccess(cacheExpireMinutes, TimeUnit.MINUTES)
+                .build();
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(EVENT_CHANNEL));
+    }
+
+    /**
+     * 获取推荐流下一页，refresh为true时从最新用户重新开始
+     */
+    public FeedPage getFeed(Long userId, Integer gender, String city, Integer minAge, Integer maxAge,
+                            int size, boolean refresh) {
+        if (minAge != null && maxAge != null && minAge > maxAge) {
+            throw new IllegalArgumentException("年龄范围无效");
+        }
+        Integer targetGender = gender != null ? gender : defaultGender(userId);
+
+        String feedKey = userId + ":" + targetGender + ":" + (city != null ? city : "") + ":" + minAge + ":" + maxAge;
+        if (refresh) {
+            feeds.invalidate(feedKey);
+        }
+        FeedState state = feeds.get(feedKey,
+                key -> new FeedState(userId, targetGender, city, minBirthday(maxAge), maxBirthday(minAge)));
+        SwipeFilter swiped = swipeFilters.get(userId);
+
+        List<FeedCandidate> page = new ArrayList<>(size);
+        boolean hasMore;
+        boolean needPrefetch;
+        synchronized (state) {
+            if (state.buffer.size() < size) {
+                fill(state, swiped, size + prefetchSize);
+            }
+            while (page.size() < size && !state.buffer.isEmpty()) {
+                FeedCandidate candidate = state.buffer.pollFirst();
+                // 缓冲期间可能已被滑过
+                if (!swiped.mightContain(candidate.getId())) {
+                    page.add(candidate);
+                }
+            }
+            hasMore = !state.buffer.isEmpty() || !state.exhausted;
+            needPrefetch = !state.exhausted && state.buffer.size() < prefetchSize && !state.prefetching;
+            if (needPrefetch) {
+                state.prefetching = true;
+            }
+        }
+
+        if (needPrefetch) {
+            prefetch(state, swiped);
+        }
+
+        FeedPage result = new FeedPage();
+        result.setUsers(page);
+        result.setHasMore(hasMore);
+        return result;
+    }
+
+    /**
+     * 记录一组滑动，集群内之后的推荐不再出现这些用户
+     */
+    public void recordSwipes(Long userId, List<Long> targetUserIds) {
+        if (targetUserIds.isEmpty()) {
+            return;
+        }
+        applySwipes(userId, targetUserIds);
+        StringBuilder targets = new StringBuilder();
+        for (Long targetUserId : targetUserIds) {
+            if (targets.length() > 0) {
+                targets.append(',');
+            }
+            targets.append(targetUserId);
+        }
+        publish(EVENT_SWIPE, userId, targets.toString());
+    }
+
+    /**
+     * 清除用户在集群各节点的推荐缓存（用户注销时调用）
+     */
+    public void evictUser(Long userId) {
+        applyEvict(userId);
+        publish(EVENT_EVICT, userId, "");
+    }
+
+    /**
+     * 接收其他节点的滑动与注销事件，格式：节点ID|事件|用户ID|目标用户ID列表
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split("\\|", -1);
+            if (parts.length < 4 || clusterNode.getNodeId().equals(parts[0])) {
+                return;
+            }
+            Long userId = Long.valueOf(parts[2]);
+            if (EVENT_EVICT.equals(parts[1])) {
+                applyEvict(userId);
+            } else if (EVENT_SWIPE.equals(parts[1])) {
+                List<Long> targetUserIds = new ArrayList<>();
+                for (String targetUserId : parts[3].split(",")) {
+                    targetUserIds.add(Long.valueOf(targetUserId));
+                }
+                applySwipes(userId, targetUserIds);
+            }
+        } catch (Exception e) {
+            log.error("处理推荐流事件失败", e);
+        }
+    }
+
+    /**
+     * 更新已加载的过滤器，未加载时不处理（加载时从数据库读取）
+     * 用compute而非computeIfPresent：过滤器正在加载时compute等待加载完成后再写入，加载期间的滑动不会丢失
+     */
+    private void applySwipes(Long userId, List<Long> targetUserIds) {
+        swipeFilters.asMap().compute(userId, (key, filter) -> {
+            if (filter == null) {
+                return null;
+            }
+            for (Long targetUserId : targetUserIds) {
+                filter.put(targetUserId);
+            }
+            // 超出容量后误判率上升，移除后下次访问时按新的数量重建
+            return filter.isOverCapacity() ? null : filter;
+        });
+    }
+
+    private void applyEvict(Long userId) {
+        swipeFilters.invalidate(userId);
+        String prefix = userId + ":";
+        feeds.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    private void publish(String event, Long userId, String targets) {
+        try {
+            stringRedisTemplate.convertAndSend(EVENT_CHANNEL,
+                    clusterNode.getNodeId() + "|" + event + "|" + userId + "|" + targets);
+        } catch (Exception e) {
+            log.error("广播推荐流事件失败：event={}, userId={}", event, userId, e);
+        }
+    }
+
+    /**
+     * 缓冲区低于预取水位时异步补充
+     */
+    private void prefetch(FeedState state, SwipeFilter swiped) {
+        try {
+            taskExecutor.execute(() -> {
+                try {
+                    synchronized (state) {
+                        fill(state, swiped, prefetchSize * 2);
+                    }
+                } catch (Exception e) {
+                    log.error("预取推荐候选失败：userId={}", state.userId, e);
+                } finally {
+                    state.prefetching = false;
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 线程池繁忙时跳过预取，下次请求同步补充
+            state.prefetching = false;
+        }
+    }
+
+    /**
+     * 从数据库按ID倒序扫描，直到缓冲区达到目标数量、候选耗尽或达到单次扫描页数上限
+     */
+    private void fill(FeedState state, SwipeFilter swiped, int target) {
+        int pages = 0;
+        while (state.buffer.size() < target && !state.exhausted && pages < maxScanPages) {
+            List<User> rows = userMapper.findFeedCandidates(state.gender, state.city,
+                    state.minBirthday, state.maxBirthday, state.beforeId, scanPageSize);
+            pages++;
+            if (rows.size() < scanPageSize) {
+                state.exhausted = true;
+            }
+            for (User user : rows) {
+                state.beforeId = user.getId();
+                if (!user.getId().equals(state.userId) && !swiped.mightContain(user.getId())) {
+                    state.buffer.addLast(toCandidate(user));
+                }
+            }
+        }
+    }
+
+    private SwipeFilter loadSwipeFilter(Long userId) {
+        int count = userMatchMapper.countByUserId(userId);
+        // 预留增长空间，减少重建次数
+        int capacity = Math.max(1000, count * 2);
+        SwipeFilter filter = new SwipeFilter(BloomFilter.create(capacity, swipeFilterFpp), capacity);
+
+        long afterTargetUserId = 0L;
+        List<Long> targetUserIds;
+        do {
+            targetUserIds = userMatchMapper.findTargetUserIdsAfter(userId, afterTargetUserId, 1000);
+            for (Long targetUserId : targetUserIds) {
+                filter.put(targetUserId);
+                afterTargetUserId = targetUserId;
+            }
+        } while (targetUserIds.size() == 1000);
+        return filter;
+    }
+
+    /**
+     * 未指定性别时推荐异性
+     */
+    private Integer defaultGender(Long userId) {
+        User user = userMapper.findById(userId);
+        if (user == null || user.getGender() == null) {
+            return null;
+        }
+        return user.getGender() == 1 ? 2 : 1;
+    }
+
+    // 年龄不超过maxAge：生日晚于 今天-(maxAge+1)年
+    private LocalDate minBirthday(Integer maxAge) {
+        return maxAge != null ? LocalDate.now().minusYears(maxAge + 1L).plusDays(1) : null;
+    }
+
+    // 年龄不小于minAge：生日不晚于 今天-minAge年
+    private LocalDate maxBirthday(Integer minAge) {
+        return minAge != null ? LocalDate.now().minusYears(minAge) : null;
+    }
+
+    private FeedCandidate toCandidate(User user) {
+        FeedCandidate candidate = new FeedCandidate();
+        candidate.setId(user.getId());
+        candidate.setNickname(user.getNickname());
+        candidate.setAvatar(user.getAvatar());
+        candidate.setGender(user.getGender());
+        candidate.setAge(user.getBirthday() != null ? Period.between(user.getBirthday(), LocalDate.now()).getYears() : null);
+        candidate.setCity(user.getCity());
+        candidate.setProfession(user.getProfession());
+        candidate.setIntroduction(user.getIntroduction());
+        candidate.setRealNameVerified(user.getRealNameVerified());
+        return candidate;
+    }
+
+    /**
+     * 已滑过用户的布隆过滤器与容量
+     */
+    private static class SwipeFilter {
+        private final BloomFilter bloomFilter;
+        private final int capacity;
+        private final AtomicInteger size = new AtomicInteger();
+
+        private SwipeFilter(BloomFilter bloomFilter, int capacity) {
+            this.bloomFilter = bloomFilter;
+            this.capacity = capacity;
+        }
+
+        private void put(long userId) {
+            bloomFilter.put(userId);
+            size.incrementAndGet();
+        }
+
+        private boolean mightContain(long userId) {
+            return bloomFilter.mightContain(userId);
+        }
+
+        private boolean isOverCapacity() {
+            return size.get() > capacity;
+        }
+    }
+
+    /**
+     * 某个用户在某组筛选条件下的推荐进度
+     */
+    private static class FeedState {
+        private final Long userId;
+        private final Integer gender;
+        private final String city;
+        private final LocalDate minBirthday;
+        private final LocalDate maxBirthday;
+        private final Deque<FeedCandidate> buffer = new ArrayDeque<>();
+        private Long beforeId; // 数据库扫描游标，null表示从最新用户开始
+        private boolean exhausted;
+        private volatile boolean prefetching;
+
+        private FeedState(Long userId, Integer gender, String city, LocalDate minBirthday, LocalDate maxBirthday) {
+            this.userId = userId;
+            this.gender = gender;
+            this.city = city;
+            this.minBirthday = minBirthday;
+            this.maxBirthday = maxBirthday;
+        }
+    }
+}
@@ -1,16 +1,45 @@
 // 4. 匹配服务
 package com.dating.service;
 
+import com.dating.dto.SwipeRequest;
 import com.dating.entity.UserMatch;
 import com.dating.mapper.UserMatchMapper;
+import com.dating.util.TransactionUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * 匹配服务：互相喜欢关系在各节点本地缓存，滑动或注销后经 match:invalidate 频道通知所有节点失效
+ * 广播丢失（如节点与Redis断连）时，该节点最多在缓存过期时间内读到旧的匹配状态
+ */
+@Slf4j
 @Service
-public class MatchService {
+public class MatchService implements MessageListener {
+
+    private static final String INVALIDATE_CHANNEL = "match:invalidate";
+    private static final String PAIRS_PREFIX = "pairs:";
+    private static final String USER_PREFIX = "user:";
 
     @Autowired
     private UserMatchMapper userMatchMapper;
@@ -18,49 +47,142 @@ public class MatchService {
     @Autowired
     private DataIntegrityService dataIntegrityService;
 
+    @Autowired
+    private DiscoveryFeedService discoveryFeedService;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    private static final int MAX_LOCK_RETRIES = 3;
+
+    // 滑动计数，用于观察吞吐与每次滑动的语句数
+    private final LongAdder swipeCount = new LongAdder();
+    private final LongAdder statementCount = new LongAdder();
+    private final long startedAt = System.nanoTime();
+
+    @Value("${cache.mutual-match.maximum-size:100000}")
+    private long mutualMatchMaximumSize;
+
+    @Value("${cache.mutual-match.expire-seconds:600}")
+    private long mutualMatchExpireSeconds;
+
+    // 互相喜欢关系缓存，key为"较小用户ID_较大用户ID"
+    private Cache<String, Boolean> mutualMatchCache;
+
+    @PostConstruct
+    public void init() {
+        mutualMatchCache = Caffeine.newBuilder()
+                .maximumSize(mutualMatchMaximumSize)
+                .expireAfterWrite(mutualMatchExpireSeconds, TimeUnit.SECONDS)
+                .build();
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(INVALIDATE_CHANNEL));
+    }
+
     /**
      * 用户匹配操作（喜欢/不喜欢）
+     * 一条upsert写入滑动记录，再用一条关联更新按双方最新动作计算互相喜欢状态
+     * 两条语句各自提交：同时互相喜欢时，后执行的计算一定能看到双方已提交的记录
      */
-    @Transactional
     public boolean userMatch(Long userId, Long targetUserId, Integer action) {
         // 验证两个用户都存在且不是同一个用户
         if (!dataIntegrityService.validateTwoDifferentUsers(userId, targetUserId)) {
             throw new IllegalArgumentException("用户不存在、状态异常或尝试对自己进行操作");
         }
+        validateAction(action);
 
-        // 检查是否已经有匹配记录
-        UserMatch existingMatch = userMatchMapper.findByUserAndTarget(userId, targetUserId);
-        if (existingMatch != null) {
-            // 更新现有记录
-            existingMatch.setAction(action);
-            userMatchMapper.updateById(existingMatch);
-        } else {
-            // 创建新的匹配记录
+        UserMatch userMatch = new UserMatch();
+        userMatch.setUserId(userId);
+        userMatch.setTargetUserId(targetUserId);
+        userMatch.setAction(action);
+        userMatchMapper.upsert(userMatch);
+
+        withLockRetry(() -> userMatchMapper.refreshMutualStatus(userId, targetUserId));
+        recordSwipes(1, 2);
+
+        invalidatePairs(userId, Collections.singletonList(targetUserId));
+        discoveryFeedService.recordSwipes(userId, Collections.singletonList(targetUserId));
+        return true;
+    }
+
+    /**
+     * 批量滑动：同一用户的一组滑动一条语句写入，一条语句计算互相喜欢状态
+     * 同一目标出现多次时以最后一次为准，返回实际写入的滑动数
+     */
+    public int batchUserMatch(Long userId, List<SwipeRequest> swipes) {
+        if (!dataIntegrityService.validateUser(userId)) {
+            throw new IllegalArgumentException("用户不存在或状态异常");
+        }
+
+        Map<Long, UserMatch> latest = new LinkedHashMap<>();
+        for (SwipeRequest swipe : swipes) {
+            validateAction(swipe.getAction());
+            if (!dataIntegrityService.validateTwoDifferentUsers(userId, swipe.getTargetUserId())) {
+                throw new IllegalArgumentException("用户不存在、状态异常或尝试对自己进行操作：" + swipe.getTargetUserId());
+            }
             UserMatch userMatch = new UserMatch();
             userMatch.setUserId(userId);
-            userMatch.setTargetUserId(targetUserId);
-            userMatch.setAction(action);
-            userMatchMapper.insert(userMatch);
+            userMatch.setTargetUserId(swipe.getTargetUserId());
+            userMatch.setAction(swipe.getAction());
+            latest.remove(swipe.getTargetUserId());
+            latest.put(swipe.getTargetUserId(), userMatch);
         }
-
-        // 如果是喜欢操作，检查是否互相喜欢
-        if (action == 1) {
-            checkMutualMatch(userId, targetUserId);
+        if (latest.isEmpty()) {
+            return 0;
         }
 
-        return true;
+        List<Long> targetUserIds = new ArrayList<>(latest.keySet());
+        userMatchMapper.batchUpsert(userId, new ArrayList<>(latest.values()));
+        withLockRetry(() -> userMatchMapper.refreshMutualStatusBatch(userId, targetUserIds));
+        recordSwipes(targetUserIds.size(), 2);
+
+        invalidatePairs(userId, targetUserIds);
+        discoveryFeedService.recordSwipes(userId, targetUserIds);
+        return targetUserIds.size();
     }
 
     /**
-     * 检查并更新互相喜欢状态
+     * 滑动吞吐与每次滑动的数据库语句数
      */
-    private void checkMutualMatch(Long userId, Long targetUserId) {
-        UserMatch reverseMatch = userMatchMapper.findByUserAndTarget(targetUserId, userId);
+    public Map<String, Object> getSwipeStats() {
+        long swipes = swipeCount.sum();
+        long statements = statementCount.sum();
+        long elapsedSeconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startedAt));
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("swipeCount", swipes);
+        stats.put("statementCount", statements);
+        stats.put("statementsPerSwipe", swipes > 0 ? (double) statements / swipes : 0);
+        stats.put("swipesPerSecond", (double) swipes / elapsedSeconds);
+        return stats;
+    }
 
-        if (reverseMatch != null && reverseMatch.getAction() == 1) {
-            // 互相喜欢，更新双方记录
-            userMatchMapper.updateMutualStatus(userId, targetUserId, 1);
-            userMatchMapper.updateMutualStatus(targetUserId, userId, 1);
+    private void validateAction(Integer action) {
+        if (action == null || (action != 1 && action != 2)) {
+            throw new IllegalArgumentException("操作类型无效");
+        }
+    }
+
+    private void recordSwipes(int swipes, int statements) {
+        swipeCount.add(swipes);
+        statementCount.add(statements);
+    }
+
+    /**
+     * 双向记录加锁冲突（死锁被回滚）时重试，计算本身是幂等的
+     */
+    private void withLockRetry(Runnable statement) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                statement.run();
+                return;
+            } catch (PessimisticLockingFailureException e) {
+                if (attempt >= MAX_LOCK_RETRIES) {
+                    throw e;
+                }
+                log.warn("计算互相喜欢状态加锁冲突，第{}次重试", attempt);
+            }
         }
     }
 
@@ -75,11 +197,82 @@ public class MatchService {
         return userMatchMapper.findMutualMatches(userId);
     }
 
+    /**
+     * 两个用户是否互相喜欢，点查并缓存结果
+     */
+    public boolean isMutualMatch(Long userId, Long targetUserId) {
+        if (userId == null || targetUserId == null) {
+            return false;
+        }
+        return mutualMatchCache.get(pairKey(userId, targetUserId),
+                key -> userMatchMapper.countMutualMatch(userId, targetUserId) > 0);
+    }
+
     /**
      * 删除用户相关的所有匹配记录（用户注销时调用）
      */
     @Transactional
     public void deleteUserMatchesByUserId(Long userId) {
         userMatchMapper.deleteByUserId(userId);
+
+        TransactionUtil.afterCommit(() -> {
+            evictUserPairs(userId);
+            publishInvalidation(USER_PREFIX + userId);
+            discoveryFeedService.evictUser(userId);
+        });
+    }
+
+    /**
+     * 接收其他节点（含本节点）的失效广播
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            if (body.startsWith(USER_PREFIX)) {
+                evictUserPairs(Long.valueOf(body.substring(USER_PREFIX.length())));
+            } else if (body.startsWith(PAIRS_PREFIX)) {
+                for (String key : body.substring(PAIRS_PREFIX.length()).split(",")) {
+                    mutualMatchCache.invalidate(key);
+                }
+            }
+        } catch (Exception e) {
+            log.error("处理匹配缓存失效广播失败", e);
+        }
+    }
+
+    /**
+     * 失效本地缓存并广播给其他节点，一组滑动合并为一条消息
+     */
+    private void invalidatePairs(Long userId, List<Long> targetUserIds) {
+        StringBuilder body = new StringBuilder(PAIRS_PREFIX);
+        for (Long targetUserId : targetUserIds) {
+            String key = pairKey(userId, targetUserId);
+            mutualMatchCache.invalidate(key);
+            if (body.length() > PAIRS_PREFIX.length()) {
+                body.append(',');
+            }
+            body.append(key);
+        }
+        publishInvalidation(body.toString());
+    }
+
+    private void evictUserPairs(Long userId) {
+        String prefix = userId + "_";
+        String suffix = "_" + userId;
+        mutualMatchCache.asMap().keySet()
+                .removeIf(key -> key.startsWith(prefix) || key.endsWith(suffix));
+    }
+
+    private void publishInvalidation(String body) {
+        try {
+            stringRedisTemplate.convertAndSend(INVALIDATE_CHANNEL, body);
+        } catch (Exception e) {
+            log.error("广播匹配缓存失效失败：{}", body, e);
+        }
+    }
+
+    private String pairKey(Long userId, Long targetUserId) {
+        return Math.min(userId, targetUserId) + "_" + Math.max(userId, targetUserId);
     }
 }
\ No newline at end of file
@@ -0,0 +1,265 @@
+// 14. 离线消息同步服务
+package com.dating.service;
+
+import com.dating.dto.ChatMessageResponse;
+import com.dating.dto.ChatSyncFrame;
+import com.dating.entity.ChatDeliveryWatermark;
+import com.dating.entity.ChatMessage;
+import com.dating.mapper.ChatDeliveryWatermarkMapper;
+import com.dating.mapper.ChatMessageMapper;
+import com.dating.util.SnowflakeIdGenerator;
+import com.dating.websocket.MessageDispatcher;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import javax.websocket.Session;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.regex.Pattern;
+
+/**
+ * 重连同步：每个用户的每个设备一个下发水位，连接建立后按ID顺序分批推送水位之后的全部消息（跨所有会话）
+ * 设备由连接参数deviceId标识，未携带的客户端共用默认水位；首次连接的设备从默认水位开始，
+ * 一台设备收到消息只推进自己的水位，不影响同一用户的其他设备
+ * 每批在异步发送成功的回调中推进水位；同步全部送达后，该会话的实时推送送达时也推进水位，
+ * 会话出现丢弃或发送失败后不再推进，下次重连从已确认的位置重新同步
+ * 实时推送与同步可能重叠，客户端按消息ID去重
+ * 消息ID在应用侧生成、异步落库，最近settle-ms内生成的消息可能晚于更大ID落库，水位不越过这些消息
+ * 水位先在内存中按用户+设备合并，定时批量写库
+ */
+@Slf4j
+@Service
+public class OfflineSyncService {
+
+    @Autowired
+    private ChatMessageMapper chatMessageMapper;
+
+    @Autowired
+    private ChatDeliveryWatermarkMapper chatDeliveryWatermarkMapper;
+
+    @Autowired
+    private MessageDispatcher messageDispatcher;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    @Qualifier("wsSyncExecutor")
+    private Executor syncExecutor;
+
+    @Value("${chat.sync.batch-size:200}")
+    private int batchSize;
+
+    @Value("${chat.sync.max-messages:5000}")
+    private int maxMessages;
+
+    @Value("${chat.sync.settle-ms:5000}")
+    private long settleMs;
+
+    // 同步全部送达时会话的丢失计数，之后丢失计数不变才允许实时推送推进水位
+    private static final String SYNCED_LOSS_KEY = "dating.syncedLossCount";
+
+    // 会话所属设备
+    private static final String DEVICE_ID_KEY = "dating.deviceId";
+
+    private static final String DEVICE_ID_PARAM = "deviceId";
+    private static final Pattern DEVICE_ID_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    // 默认水位的设备标识
+    private static final String DEFAULT_DEVICE_ID = "";
+
+    // 待写库的水位："userId:deviceId" -> 已送达的最大消息ID
+    private final ConcurrentHashMap<String, Long> pendingWatermarks = new ConcurrentHashMap<>();
+
+    @PreDestroy
+    public void shutdown() {
+        flushWatermarks();
+    }
+
+    /**
+     * 异步同步，不阻塞WebSocket连接建立
+     */
+    public void syncAsync(Long userId, Session session) {
+        syncExecutor.execute(() -> {
+            try {
+                sync(userId, session);
+            } catch (Exception e) {
+                log.error("用户{}离线消息同步失败", userId, e);
+            }
+        });
+    }
+
+    /**
+     * 推送水位之后的消息，返回推送条数
+     * 单次同步最多推送maxMessages条，剩余消息在下次重连时继续，或由客户端按会话拉取历史
+     */
+    public int sync(Long userId, Session session) throws Exception {
+        String deviceId = deviceIdOf(session);
+        session.getUserProperties().put(DEVICE_ID_KEY, deviceId);
+        Long watermark = chatDeliveryWatermarkMapper.findLastMessageId(userId, deviceId);
+        long afterId = watermark != null ? watermark : 0L;
+
+        // 同步过程中出现丢弃或发送失败，之后送达的批次也不再推进水位
+        long lossAtStart = messageDispatcher.getLossCount(session);
+        int pushed = 0;
+        boolean hasMore = true;
+        boolean complete = false;
+        while (hasMore && pushed < maxMessages && session.isOpen()) {
+            int limit = Math.min(batchSize, maxMessages - pushed);
+            // 多查一条判断是否还有后续
+            List<ChatMessage> rows = chatMessageMapper.findIncomingAfter(userId, afterId, limit + 1);
+            hasMore = rows.size() > limit;
+            List<ChatMessage> batch = hasMore ? rows.subList(0, limit) : rows;
+            if (batch.isEmpty()) {
+                complete = true;
+                break;
+            }
+
+            long lastId = batch.get(batch.size() - 1).getId();
+            ChatSyncFrame frame = new ChatSyncFrame();
+            frame.setMessages(toResponses(batch));
+            frame.setLastMessageId(lastId);
+            frame.setHasMore(hasMore);
+
+            boolean last = !hasMore;
+            boolean queued = messageDispatcher.send(session, objectMapper.writeValueAsString(frame), () -> {
+                if (messageDispatcher.getLossCount(session) != lossAtStart) {
+                    return;
+                }
+                advance(userId, deviceId, lastId);
+                if (last) {
+                    markSynced(session, lossAtStart);
+                }
+            });
+            if (!queued) {
+                // 未入队则不推进水位，下次重连重新同步
+                log.warn("用户{}离线消息同步中断，出站队列不可用", userId);
+                break;
+            }
+            afterId = lastId;
+            pushed += batch.size();
+        }
+        if (complete) {
+            // 没有待同步的消息，之前入队的同步帧（如有）均已处理
+            markSynced(session, lossAtStart);
+        }
+
+        if (pushed > 0) {
+            log.info("用户{}离线消息同步完成，推送{}条", userId, pushed);
+        }
+        return pushed;
+    }
+
+    /**
+     * 实时推送给用户在本节点的所有设备，送达后推进水位
+     */
+    public int deliverLive(Long userId, Long messageId, String payload) {
+        if (messageId == null) {
+            return messageDispatcher.sendToUser(userId, payload);
+        }
+        return messageDispatcher.sendToUser(userId, payload, session -> {
+            Object syncedLoss = session.getUserProperties().get(SYNCED_LOSS_KEY);
+            if (syncedLoss instanceof Long && (Long) syncedLoss == messageDispatcher.getLossCount(session)) {
+                advance(userId, (String) session.getUserProperties().get(DEVICE_ID_KEY), messageId);
+            }
+        });
+    }
+
+    /**
+     * 批量写入内存中合并的水位
+     */
+    public int flushWatermarks() {
+        if (pendingWatermarks.isEmpty()) {
+            return 0;
+        }
+        List<ChatDeliveryWatermark> batch = new ArrayList<>();
+        for (String key : pendingWatermarks.keySet()) {
+            Long lastMessageId = pendingWatermarks.remove(key);
+            if (lastMessageId != null) {
+                int separator = key.indexOf(':');
+                batch.add(new ChatDeliveryWatermark(Long.valueOf(key.substring(0, separator)),
+                        key.substring(separator + 1), lastMessageId));
+            }
+        }
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        try {
+            chatDeliveryWatermarkMapper.batchAdvance(batch);
+        } catch (Exception e) {
+            // 放回待写，下次重试；水位只增不减，合并取较大值
+            for (ChatDeliveryWatermark watermark : batch) {
+                pendingWatermarks.merge(pendingKey(watermark.getUserId(), watermark.getDeviceId()),
+                        watermark.getLastMessageId(), Math::max);
+            }
+            log.error("批量写入下发水位失败，设备数：{}", batch.size(), e);
+            return 0;
+        }
+        return batch.size();
+    }
+
+    /**
+     * 删除用户的下发水位（用户注销时调用）
+     */
+    public void deleteByUserId(Long userId) {
+        String prefix = userId + ":";
+        pendingWatermarks.keySet().removeIf(key -> key.startsWith(prefix));
+        chatDeliveryWatermarkMapper.deleteByUserId(userId);
+    }
+
+    /**
+     * 记录设备已送达的消息ID，不越过最近settle-ms内生成的消息
+     */
+    private void advance(Long userId, String deviceId, long messageId) {
+        long settledId = SnowflakeIdGenerator.minIdAt(System.currentTimeMillis() - settleMs) - 1;
+        long watermark = Math.min(messageId, settledId);
+        if (watermark > 0) {
+            pendingWatermarks.merge(pendingKey(userId, deviceId), watermark, Math::max);
+        }
+    }
+
+    /**
+     * 连接参数中的设备标识，未携带或格式不合法时使用默认水位
+     */
+    private String deviceIdOf(Session session) {
+        List<String> values = session.getRequestParameterMap().get(DEVICE_ID_PARAM);
+        String deviceId = values != null && !values.isEmpty() ? values.get(0) : null;
+        if (StringUtils.isEmpty(deviceId) || !DEVICE_ID_PATTERN.matcher(deviceId).matches()) {
+            return DEFAULT_DEVICE_ID;
+        }
+        return deviceId;
+    }
+
+    private static String pendingKey(Long userId, String deviceId) {
+        return userId + ":" + deviceId;
+    }
+
+    private void markSynced(Session session, long lossCount) {
+        session.getUserProperties().put(SYNCED_LOSS_KEY, lossCount);
+    }
+
+    private List<ChatMessageResponse> toResponses(List<ChatMessage> messages) {
+        List<ChatMessageResponse> responses = new ArrayList<>(messages.size());
+        for (ChatMessage message : messages) {
+            ChatMessageResponse response = new ChatMessageResponse();
+            response.setId(message.getId());
+            response.setSeq(message.getSeq());
+            response.setFromUserId(message.getFromUserId());
+            response.setToUserId(message.getToUserId());
+            response.setMessageType(message.getMessageType());
+            response.setContent(message.getContent());
+            response.setMediaUrl(message.getMediaUrl());
+            response.setCreatedAt(message.getCreatedAt());
+            responses.add(response);
+        }
+        return responses;
+    }
+}
@@ -1,69 +1,278 @@
 // 8. 在线状态管理服务
 package com.dating.service;
 
+import com.dating.websocket.PresenceBroadcaster;
+import com.dating.websocket.PresenceSubscriptions;
+import com.dating.websocket.SessionRegistry;
+import com.dating.websocket.UserRouteDirectory;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.websocket.Session;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+/**
+ * 在线状态：本节点连接由SessionRegistry管理，集群范围的在线状态由PresenceService提供
+ * 上下线只修改本地连接表，再把用户的最新本地状态同步到Redis：同步不持锁，同一用户同一时刻只有一个线程在同步，
+ * 每轮都读取最新的本地状态，断开与重连交错时最终以本地连接的实际状态为准，不会把刚重连的用户标记为离线
+ * 路由与在线状态的续期在独立线程上执行，不受共享调度线程上长任务的影响
+ */
 @Slf4j
 @Service
 public class OnlineStatusService {
 
-    // 存储用户连接
-    public static final ConcurrentHashMap<Long, Session> USER_SESSIONS = new ConcurrentHashMap<>();
+    // 存储用户连接（支持同一用户多设备在线）
+    @Autowired
+    private SessionRegistry sessionRegistry;
+
+    // 集群路由目录
+    @Autowired
+    private UserRouteDirectory userRouteDirectory;
+
+    // 集群在线状态
+    @Autowired
+    private PresenceService presenceService;
+
+    // 在线状态订阅与变化广播
+    @Autowired
+    private PresenceSubscriptions presenceSubscriptions;
+
+    @Autowired
+    private PresenceBroadcaster presenceBroadcaster;
+
+    // 续期间隔，需明显小于在线状态TTL
+    @Value("${presence.heartbeat-interval-ms:10000}")
+    private long heartbeatIntervalMs;
+
+    // 本地状态有变化、待同步到Redis的用户
+    private final Set<Long> dirtyUsers = ConcurrentHashMap.newKeySet();
+
+    // 正在同步的用户
+    private final Set<Long> syncingUsers = ConcurrentHashMap.newKeySet();
+
+    private ScheduledExecutorService heartbeatTicker;
+
+    @PostConstruct
+    public void start() {
+        heartbeatTicker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Dating-PresenceHeartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeatTicker.scheduleAtFixedRate(this::heartbeatSafely, heartbeatIntervalMs, heartbeatIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        heartbeatTicker.shutdownNow();
+    }
 
     public void addUser(Long userId, Session session) {
-        USER_SESSIONS.put(userId, session);
-        log.info("用户{}上线", userId);
+        if (sessionRegistry.register(userId, session)) {
+            syncPresence(userId);
+            log.info("用户{}上线", userId);
+        } else {
+            log.info("用户{}新增设备连接，当前设备数：{}", userId, sessionRegistry.getSessions(userId).size());
+        }
     }
 
     public void removeUser(Long userId) {
-        USER_SESSIONS.remove(userId);
+        sessionRegistry.remove(userId);
+        syncPresence(userId);
         log.info("用户{}下线", userId);
     }
 
+    /**
+     * 移除会话，返回会话所属用户ID
+     */
+    public Long removeSession(Session session) {
+        Long userId = sessionRegistry.getUserId(session);
+        if (userId == null) {
+            return null;
+        }
+        sessionRegistry.unregister(session);
+        if (!sessionRegistry.hasOpenSession(userId)) {
+            syncPresence(userId);
+            log.info("用户{}下线", userId);
+        }
+        return userId;
+    }
+
+    public Long getUserIdBySession(Session session) {
+        return sessionRegistry.getUserId(session);
+    }
+
+    /**
+     * 用户是否在线：本节点有打开的连接，或集群中其他节点登记在线
+     */
     public boolean isUserOnline(Long userId) {
-        Session session = USER_SESSIONS.get(userId);
-        return session != null && session.isOpen();
+        if (sessionRegistry.hasOpenSession(userId)) {
+            return true;
+        }
+        try {
+            return presenceService.isOnline(userId);
+        } catch (Exception e) {
+            log.error("查询用户{}集群在线状态失败", userId, e);
+            return false;
+        }
     }
 
+    /**
+     * 集群在线用户ID列表
+     */
     public Set<Long> getOnlineUsers() {
-        return USER_SESSIONS.entrySet().stream()
-                .filter(entry -> entry.getValue().isOpen())
-                .map(ConcurrentHashMap.Entry::getKey)
+        try {
+            return presenceService.getOnlineUsers();
+        } catch (Exception e) {
+            log.error("查询集群在线用户失败，回退本节点", e);
+            return getLocalOnlineUsers();
+        }
+    }
+
+    /**
+     * 本节点在线用户ID列表
+     */
+    public Set<Long> getLocalOnlineUsers() {
+        return sessionRegistry.getUserIds().stream()
+                .filter(sessionRegistry::hasOpenSession)
                 .collect(Collectors.toSet());
     }
 
+    /**
+     * 批量检查在线状态，一次Redis往返
+     */
     public List<Long> getOnlineUsersFromList(List<Long> userIds) {
-        return userIds.stream()
-                .filter(this::isUserOnline)
-                .collect(Collectors.toList());
+        try {
+            return presenceService.filterOnline(userIds);
+        } catch (Exception e) {
+            log.error("批量查询集群在线状态失败，回退本节点", e);
+            return userIds.stream()
+                    .filter(sessionRegistry::hasOpenSession)
+                    .collect(Collectors.toList());
+        }
     }
 
-    public Session getUserSession(Long userId) {
-        return USER_SESSIONS.get(userId);
+    /**
+     * 获取用户在本节点所有设备的会话
+     */
+    public Set<Session> getUserSessions(Long userId) {
+        return sessionRegistry.getSessions(userId);
     }
 
+    /**
+     * 集群在线人数
+     */
     public int getOnlineCount() {
-        return (int) USER_SESSIONS.entrySet().stream()
-                .filter(entry -> entry.getValue().isOpen())
-                .count();
+        try {
+            return presenceService.getOnlineCount();
+        } catch (Exception e) {
+            log.error("查询集群在线人数失败，回退本节点", e);
+            return getLocalOnlineCount();
+        }
+    }
+
+    /**
+     * 本节点在线人数
+     */
+    public int getLocalOnlineCount() {
+        return sessionRegistry.size();
+    }
+
+    /**
+     * 心跳：批量续期本节点在线用户的集群路由与在线状态，并清理过期成员
+     */
+    public void heartbeat() {
+        Set<Long> localUsers = getLocalOnlineUsers();
+        userRouteDirectory.refresh(localUsers);
+        presenceService.heartbeat(localUsers);
+        try {
+            for (Long userId : presenceService.pruneExpired()) {
+                presenceBroadcaster.onChange(userId, false);
+            }
+        } catch (Exception e) {
+            log.error("清理过期在线状态失败", e);
+        }
+    }
+
+    /**
+     * 订阅一组用户的在线状态，立即推送当前状态，之后推送增量变化
+     */
+    public void subscribePresence(Session session, Collection<Long> userIds) {
+        Set<Long> targets = presenceSubscriptions.subscribe(session, userIds);
+        List<Long> online = getOnlineUsersFromList(new ArrayList<>(targets));
+        presenceSubscriptions.sendSnapshot(session, targets, online);
+    }
+
+    public void unsubscribePresence(Session session) {
+        presenceSubscriptions.unsubscribe(session);
     }
 
     // 清理无效连接
     public void cleanInactiveSessions() {
-        USER_SESSIONS.entrySet().removeIf(entry -> {
-            Session session = entry.getValue();
-            boolean isInactive = session == null || !session.isOpen();
+        int count = sessionRegistry.removeIf(session -> {
+            boolean isInactive = !session.isOpen();
             if (isInactive) {
-                log.info("清理用户{}的无效连接", entry.getKey());
+                log.info("清理用户{}的无效连接", sessionRegistry.getUserId(session));
             }
             return isInactive;
         });
+        if (count > 0) {
+            log.debug("本次清理无效连接数量: {}", count);
+        }
+    }
+
+    private void heartbeatSafely() {
+        try {
+            heartbeat();
+        } catch (Exception e) {
+            log.error("续期集群在线状态失败", e);
+        }
+    }
+
+    /**
+     * 把用户的本地在线状态同步到Redis；其他线程正在同步该用户时只做标记，由该线程再同步一轮
+     */
+    private void syncPresence(Long userId) {
+        dirtyUsers.add(userId);
+        while (dirtyUsers.contains(userId) && syncingUsers.add(userId)) {
+            try {
+                while (dirtyUsers.remove(userId)) {
+                    applyPresence(userId);
+                }
+            } finally {
+                syncingUsers.remove(userId);
+            }
+        }
+    }
+
+    private void applyPresence(Long userId) {
+        try {
+            if (sessionRegistry.hasOpenSession(userId)) {
+                userRouteDirectory.register(userId);
+                if (presenceService.markOnline(userId)) {
+                    presenceBroadcaster.onChange(userId, true);
+                }
+            } else {
+                userRouteDirectory.unregister(userId);
+                if (presenceService.markOffline(userId)) {
+                    presenceBroadcaster.onChange(userId, false);
+                }
+            }
+        } catch (Exception e) {
+            // 在线用户的路由与在线状态由下一次心跳补齐
+            log.error("同步用户{}在线状态失败", userId, e);
+        }
     }
-}
\ No newline at end of file
+}
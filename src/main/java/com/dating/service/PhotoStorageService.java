@@ -0,0 +1,294 @@
+// 19. 照片存储服务
+package com.dating.service;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * 本地照片存储：按内容SHA-256寻址，相同内容的上传共用一个文件
+ * 上传以固定大小的缓冲区流式写入临时文件并同时计算摘要，写完后原子改名为 {root}/ab/cd/{sha256}.{ext}
+ * 文件一经写入不再修改，摘要同时作为下载的ETag；缩略图以 {sha256}_{尺寸}.{ext} 存放在原图旁边
+ */
+@Slf4j
+@Service
+public class PhotoStorageService {
+
+    public static final String FILE_URL_PATH = "/api/photo/file/";
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final String TEMP_DIR = ".tmp";
+    private static final Pattern KEY_PATTERN = Pattern.compile("^[0-9a-f]{64}(_[0-9]{1,4})?\\.(jpg|png|gif)$");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    @Value("${file.upload-path:./uploads/}")
+    private String uploadPath;
+
+    @Value("${file.domain:http://localhost:8080}")
+    private String domain;
+
+    private Path root;
+    private Path tempDir;
+
+    private final LongAdder uploads = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder downloads = new LongAdder();
+    private final LongAdder bytesServed = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        root = Paths.get(uploadPath).toAbsolutePath().normalize();
+        tempDir = root.resolve(TEMP_DIR);
+        try {
+            Files.createDirectories(tempDir);
+        } catch (IOException e) {
+            throw new IllegalStateException("无法创建照片存储目录" + root + "，请检查 file.upload-path 配置及目录权限", e);
+        }
+        if (!Files.isWritable(tempDir)) {
+            throw new IllegalStateException("照片存储目录" + root + "不可写，请检查 file.upload-path 配置及目录权限");
+        }
+        log.info("照片存储目录：{}", root);
+    }
+
+    /**
+     * 流式保存上传文件，返回内容寻址的存储结果
+     */
+    public StoredFile store(MultipartFile file) throws IOException {
+        if (file == null || file.isEmpty()) {
+            throw new IllegalArgumentException("上传文件不能为空");
+        }
+
+        MessageDigest digest = sha256();
+        Path temp = createTempFile();
+        String extension = null;
+        long size = 0;
+        try {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            try (InputStream in = file.getInputStream();
+                 FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                int read;
+                while ((read = readFully(in, buffer)) > 0) {
+                    if (extension == null) {
+                        extension = detectExtension(buffer, read);
+                        if (extension == null) {
+                            throw new IllegalArgumentException("仅支持JPG、PNG、GIF格式的图片");
+                        }
+                    }
+                    digest.update(buffer, 0, read);
+                    ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+                    while (chunk.hasRemaining()) {
+                        out.write(chunk);
+                    }
+                    size += read;
+                }
+                out.force(false);
+            }
+
+            String key = toHex(digest.digest()) + "." + extension;
+            if (publish(temp, key)) {
+                bytesWritten.add(size);
+            } else {
+                deduplicated.increment();
+            }
+            uploads.increment();
+
+            StoredFile stored = new StoredFile();
+            stored.setKey(key);
+            stored.setSize(size);
+            stored.setContentType(contentType(key));
+            stored.setUrl(urlOf(key));
+            return stored;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * 按存储key定位文件，key不合法或文件不存在时返回null
+     */
+    public Path locate(String key) {
+        if (key == null || !KEY_PATTERN.matcher(key).matches()) {
+            return null;
+        }
+        Path path = resolve(key);
+        return Files.isRegularFile(path) ? path : null;
+    }
+
+    /**
+     * 创建临时文件，写完后通过publish发布
+     */
+    public Path createTempFile() {
+        return tempDir.resolve(UUID.randomUUID().toString());
+    }
+
+    /**
+     * 把写完的临时文件原子改名为key对应的文件，返回false表示相同内容已存在
+     */
+    public boolean publish(Path temp, String key) throws IOException {
+        Path target = resolve(key);
+        if (Files.exists(target)) {
+            return false;
+        }
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            // 并发写入了相同内容
+            return false;
+        }
+    }
+
+    /**
+     * key对应的文件是否已存在
+     */
+    public boolean exists(String key) {
+        return Files.isRegularFile(resolve(key));
+    }
+
+    /**
+     * 原图key的缩略图key
+     */
+    public String variantKey(String key, int size, String extension) {
+        return key.substring(0, key.indexOf('.')) + "_" + size + "." + extension;
+    }
+
+    /**
+     * 从本地存储的访问地址中取出key，非本地存储的地址返回null
+     */
+    public String keyOf(String url) {
+        if (url == null) {
+            return null;
+        }
+        int index = url.indexOf(FILE_URL_PATH);
+        if (index < 0) {
+            return null;
+        }
+        String key = url.substring(index + FILE_URL_PATH.length());
+        return KEY_PATTERN.matcher(key).matches() ? key : null;
+    }
+
+    public String urlOf(String key) {
+        String base = domain.endsWith("/") ? domain.substring(0, domain.length() - 1) : domain;
+        return base + FILE_URL_PATH + key;
+    }
+
+    public String contentType(String key) {
+        switch (key.substring(key.lastIndexOf('.') + 1)) {
+            case "png":
+                return "image/png";
+            case "gif":
+                return "image/gif";
+            default:
+                return "image/jpeg";
+        }
+    }
+
+    /**
+     * 内容摘要即ETag
+     */
+    public String etagOf(String key) {
+        return "\"" + key.substring(0, key.indexOf('.')) + "\"";
+    }
+
+    public void recordDownload(long bytes) {
+        downloads.increment();
+        bytesServed.add(bytes);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("uploads", uploads.sum());
+        stats.put("deduplicated", deduplicated.sum());
+        stats.put("bytesWritten", bytesWritten.sum());
+        stats.put("downloads", downloads.sum());
+        stats.put("bytesServed", bytesServed.sum());
+        return stats;
+    }
+
+    private Path resolve(String key) {
+        return root.resolve(key.substring(0, 2)).resolve(key.substring(2, 4)).resolve(key);
+    }
+
+    /**
+     * 读满缓冲区或到达流末尾，保证首块足够识别文件头
+     */
+    private int readFully(InputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int read = in.read(buffer, total, buffer.length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * 按文件头识别图片格式，不信任客户端声明的Content-Type
+     * 仅接受缩略图生成能解码的格式（ImageIO不含WebP解码器）
+     */
+    private String detectExtension(byte[] head, int length) {
+        if (length >= 3 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xD8 && (head[2] & 0xFF) == 0xFF) {
+            return "jpg";
+        }
+        if (length >= 8 && (head[0] & 0xFF) == 0x89 && head[1] == 'P' && head[2] == 'N' && head[3] == 'G') {
+            return "png";
+        }
+        if (length >= 6 && head[0] == 'G' && head[1] == 'I' && head[2] == 'F' && head[3] == '8') {
+            return "gif";
+        }
+        return null;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * 存储结果
+     */
+    @Data
+    public static class StoredFile {
+        private String key;
+        private long size;
+        private String contentType;
+        private String url;
+    }
+}
@@ -0,0 +1,311 @@
+// 20. 照片缩略图服务
+package com.dating.service;
+
+import com.dating.entity.UserPhoto;
+import com.dating.mapper.UserPhotoMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 上传后在独立的有界线程池中生成固定尺寸的缩略图（最长边64/256/1080），与原图同目录存放
+ * 上传请求只负责入队，线程池饱和时任务被拒绝，由定时任务扫描仍在生成中的照片重新提交
+ * 缩略图生成前客户端拿到的各尺寸地址均为原图地址
+ */
+@Slf4j
+@Service
+public class PhotoVariantService {
+
+    public static final int STATUS_PENDING = 0;
+    public static final int STATUS_READY = 1;
+    public static final int STATUS_FAILED = 2;
+
+    // 从大到小生成，每档由上一档缩小得到
+    private static final int[] VARIANT_SIZES = {1080, 256, 64};
+    // 解码前按图片头校验像素数，防止小文件解压出超大位图
+    private static final long MAX_PIXELS = 40_000_000L;
+    private static final float JPEG_QUALITY = 0.85f;
+
+    @Autowired
+    private PhotoStorageService photoStorageService;
+
+    @Autowired
+    private UserPhotoMapper userPhotoMapper;
+
+    @Value("${photo.variant.pool-size:2}")
+    private int poolSize;
+
+    @Value("${photo.variant.queue-capacity:500}")
+    private int queueCapacity;
+
+    @Value("${photo.variant.retry-after-minutes:5}")
+    private long retryAfterMinutes;
+
+    private ThreadPoolExecutor executor;
+
+    // 已入队或处理中的照片，避免定时重提交重复处理
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong generated = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        // 不使用磁盘缓存，图片都在内存中处理
+        ImageIO.setUseCache(false);
+        AtomicInteger index = new AtomicInteger();
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "Dating-PhotoVariant-" + index.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        log.info("缩略图线程池：线程数{}，队列容量{}", poolSize, queueCapacity);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * 新照片的初始缩略图状态：非本地存储的照片不生成，相同内容的缩略图已存在时直接可用
+     */
+    public int initialStatus(String photoUrl) {
+        String key = photoStorageService.keyOf(photoUrl);
+        if (key == null) {
+            return STATUS_FAILED;
+        }
+        return allVariantsExist(key) ? STATUS_READY : STATUS_PENDING;
+    }
+
+    /**
+     * 提交缩略图生成任务，不阻塞调用线程
+     */
+    public void submit(UserPhoto photo) {
+        if (photo.getVariantStatus() == null || photo.getVariantStatus() != STATUS_PENDING
+                || !inFlight.add(photo.getId())) {
+            return;
+        }
+        try {
+            executor.execute(() -> process(photo));
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(photo.getId());
+            rejected.incrementAndGet();
+            log.warn("缩略图线程池已满，照片{}稍后由定时任务重新提交", photo.getId());
+        }
+    }
+
+    /**
+     * 重新提交长时间仍在生成中的照片（线程池拒绝或节点重启导致）
+     */
+    public int resubmitPending() {
+        int capacity = executor.getQueue().remainingCapacity();
+        if (capacity <= 0) {
+            return 0;
+        }
+        List<UserPhoto> pending = userPhotoMapper.findPendingVariants(
+                LocalDateTime.now().minusMinutes(retryAfterMinutes), capacity);
+        for (UserPhoto photo : pending) {
+            submit(photo);
+        }
+        return pending.size();
+    }
+
+    /**
+     * 各尺寸缩略图地址，尚未生成或生成失败时回退为原图地址
+     */
+    public Map<Integer, String> variantUrls(UserPhoto photo) {
+        Map<Integer, String> urls = new LinkedHashMap<>();
+        String key = photo.getVariantStatus() != null && photo.getVariantStatus() == STATUS_READY
+                ? photoStorageService.keyOf(photo.getPhotoUrl()) : null;
+        for (int i = VARIANT_SIZES.length - 1; i >= 0; i--) {
+            int size = VARIANT_SIZES[i];
+            urls.put(size, key == null ? photo.getPhotoUrl()
+                    : photoStorageService.urlOf(photoStorageService.variantKey(key, size, variantExtension(key))));
+        }
+        return urls;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long done = generated.get();
+        stats.put("poolSize", executor.getPoolSize());
+        stats.put("activeThreads", executor.getActiveCount());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("generated", done);
+        stats.put("failed", failed.get());
+        stats.put("rejected", rejected.get());
+        stats.put("avgMillis", done == 0 ? 0 : totalNanos.get() / done / 1_000_000);
+        return stats;
+    }
+
+    private void process(UserPhoto photo) {
+        long start = System.nanoTime();
+        int status;
+        try {
+            generate(photoStorageService.keyOf(photo.getPhotoUrl()));
+            status = STATUS_READY;
+            generated.incrementAndGet();
+            totalNanos.addAndGet(System.nanoTime() - start);
+        } catch (Exception e) {
+            log.warn("照片{}生成缩略图失败：{}", photo.getId(), e.getMessage());
+            status = STATUS_FAILED;
+            failed.incrementAndGet();
+        }
+
+        try {
+            userPhotoMapper.updateVariantStatus(photo.getId(), status);
+        } catch (Exception e) {
+            log.error("更新照片{}缩略图状态失败", photo.getId(), e);
+        } finally {
+            inFlight.remove(photo.getId());
+        }
+    }
+
+    private void generate(String key) throws IOException {
+        Path source = key == null ? null : photoStorageService.locate(key);
+        if (source == null) {
+            throw new IllegalArgumentException("原图不存在");
+        }
+        String extension = variantExtension(key);
+        if (allVariantsExist(key)) {
+            return;
+        }
+
+        BufferedImage image = decode(source);
+        for (int size : VARIANT_SIZES) {
+            image = fit(image, size, "png".equals(extension));
+            String variantKey = photoStorageService.variantKey(key, size, extension);
+            if (!photoStorageService.exists(variantKey)) {
+                write(image, extension, variantKey);
+            }
+        }
+    }
+
+    private BufferedImage decode(Path source) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(source.toFile())) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IllegalArgumentException("不支持的图片格式");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                if (pixels > MAX_PIXELS) {
+                    throw new IllegalArgumentException("图片尺寸过大：" + pixels + "像素");
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * 等比缩放到最长边不超过size，不放大；先逐次减半再做最后一步双线性插值，兼顾速度与画质
+     */
+    private BufferedImage fit(BufferedImage image, int size, boolean alpha) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int type = alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        double scale = Math.min(1.0, (double) size / Math.max(width, height));
+        int targetWidth = Math.max(1, (int) Math.round(width * scale));
+        int targetHeight = Math.max(1, (int) Math.round(height * scale));
+        if (targetWidth == width && targetHeight == height && image.getType() == type) {
+            return image;
+        }
+
+        BufferedImage current = image;
+        do {
+            int nextWidth = Math.max(targetWidth, current.getWidth() / 2);
+            int nextHeight = Math.max(targetHeight, current.getHeight() / 2);
+            BufferedImage next = new BufferedImage(nextWidth, nextHeight, type);
+            Graphics2D graphics = next.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                graphics.drawImage(current, 0, 0, nextWidth, nextHeight, null);
+            } finally {
+                graphics.dispose();
+            }
+            current = next;
+        } while (current.getWidth() != targetWidth || current.getHeight() != targetHeight);
+        return current;
+    }
+
+    private void write(BufferedImage image, String extension, String variantKey) throws IOException {
+        Path temp = photoStorageService.createTempFile();
+        try {
+            if ("jpg".equals(extension)) {
+                ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+                try (ImageOutputStream output = ImageIO.createImageOutputStream(temp.toFile())) {
+                    ImageWriteParam param = writer.getDefaultWriteParam();
+                    param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                    param.setCompressionQuality(JPEG_QUALITY);
+                    writer.setOutput(output);
+                    writer.write(null, new IIOImage(image, null, null), param);
+                } finally {
+                    writer.dispose();
+                }
+            } else {
+                ImageIO.write(image, extension, temp.toFile());
+            }
+            photoStorageService.publish(temp, variantKey);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private boolean allVariantsExist(String key) {
+        String extension = variantExtension(key);
+        for (int size : VARIANT_SIZES) {
+            if (!photoStorageService.exists(photoStorageService.variantKey(key, size, extension))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * PNG/GIF保留透明通道输出PNG，其余输出JPEG
+     */
+    private String variantExtension(String key) {
+        return key.endsWith(".png") || key.endsWith(".gif") ? "png" : "jpg";
+    }
+}
@@ -0,0 +1,187 @@
+// 13. 集群在线状态服务
+package com.dating.service;
+
+import com.dating.websocket.UserRouteDirectory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 集群在线状态：有序集合 presence:online，member为用户ID，score为在线状态过期时间戳
+ * 各节点定期批量续期本地在线用户；过期成员由定时清理移除，在线人数直接取ZCARD
+ */
+@Slf4j
+@Service
+public class PresenceService {
+
+    private static final String PRESENCE_KEY = "presence:online";
+    private static final int PIPELINE_BATCH = 1000;
+
+    // 用户在所有节点都没有连接时才移出在线集合，已过期的节点路由不计入
+    private static final DefaultRedisScript<Long> OFFLINE_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('ZREMRANGEBYSCORE', KEYS[1], '-inf', ARGV[2]) " +
+            "if redis.call('ZCARD', KEYS[1]) == 0 then " +
+            "  return redis.call('ZREM', KEYS[2], ARGV[1]) " +
+            "end " +
+            "return 0", Long.class);
+
+    // 原子地取出并移除已过期成员，单次最多ARGV[2]个
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> PRUNE_SCRIPT = new DefaultRedisScript<>(
+            "local ids = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, ARGV[2]) " +
+            "if #ids > 0 then redis.call('ZREM', KEYS[1], unpack(ids)) end " +
+            "return ids", List.class);
+    private static final int PRUNE_BATCH = 1000;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${presence.ttl-seconds:30}")
+    private long ttlSeconds;
+
+    /**
+     * 用户上线，返回是否由离线变为在线
+     */
+    public boolean markOnline(Long userId) {
+        try {
+            return Boolean.TRUE.equals(
+                    stringRedisTemplate.opsForZSet().add(PRESENCE_KEY, String.valueOf(userId), expireAt()));
+        } catch (Exception e) {
+            log.error("登记用户{}在线状态失败", userId, e);
+            return false;
+        }
+    }
+
+    /**
+     * 用户在本节点下线，其他节点仍有连接时保持在线；返回是否由在线变为离线
+     */
+    public boolean markOffline(Long userId) {
+        try {
+            Long removed = stringRedisTemplate.execute(OFFLINE_SCRIPT,
+                    Arrays.asList(UserRouteDirectory.routeKey(userId), PRESENCE_KEY), String.valueOf(userId),
+                    String.valueOf(System.currentTimeMillis()));
+            return removed != null && removed > 0;
+        } catch (Exception e) {
+            log.error("登记用户{}离线状态失败", userId, e);
+            return false;
+        }
+    }
+
+    /**
+     * 批量续期本节点在线用户，按批管道提交
+     */
+    public void heartbeat(Collection<Long> userIds) {
+        if (userIds.isEmpty()) {
+            return;
+        }
+        double score = expireAt();
+        List<Long> ids = new ArrayList<>(userIds);
+        try {
+            for (int from = 0; from < ids.size(); from += PIPELINE_BATCH) {
+                List<Long> chunk = ids.subList(from, Math.min(from + PIPELINE_BATCH, ids.size()));
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    for (Long userId : chunk) {
+                        conn.zAdd(PRESENCE_KEY, score, String.valueOf(userId));
+                    }
+                    return null;
+                });
+            }
+        } catch (Exception e) {
+            log.error("续期在线状态失败，用户数：{}", userIds.size(), e);
+        }
+    }
+
+    /**
+     * 移除已过期的在线成员（如节点宕机未能注销的用户），返回被移除的用户ID
+     * 多个节点同时清理时每个成员只会被其中一个节点取到
+     */
+    @SuppressWarnings("unchecked")
+    public List<Long> pruneExpired() {
+        List<Long> removed = new ArrayList<>();
+        String now = String.valueOf(System.currentTimeMillis());
+        List<Object> ids;
+        do {
+            ids = stringRedisTemplate.execute(PRUNE_SCRIPT, Collections.singletonList(PRESENCE_KEY),
+                    now, String.valueOf(PRUNE_BATCH));
+            if (ids != null) {
+                for (Object id : ids) {
+                    removed.add(Long.valueOf(id.toString()));
+                }
+            }
+        } while (ids != null && ids.size() == PRUNE_BATCH);
+        return removed;
+    }
+
+    public boolean isOnline(Long userId) {
+        Double score = stringRedisTemplate.opsForZSet().score(PRESENCE_KEY, String.valueOf(userId));
+        return score != null && score > System.currentTimeMillis();
+    }
+
+    /**
+     * 批量检查在线状态，一次管道往返
+     */
+    public List<Long> filterOnline(List<Long> userIds) {
+        List<Long> online = new ArrayList<>();
+        if (userIds.isEmpty()) {
+            return online;
+        }
+
+        List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Long userId : userIds) {
+                conn.zScore(PRESENCE_KEY, String.valueOf(userId));
+            }
+            return null;
+        });
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < userIds.size(); i++) {
+            Object score = scores.get(i);
+            if (score instanceof Double && (Double) score > now) {
+                online.add(userIds.get(i));
+            }
+        }
+        return online;
+    }
+
+    /**
+     * 集群在线人数（过期成员由定时任务清理）
+     */
+    public int getOnlineCount() {
+        Long count = stringRedisTemplate.opsForZSet().zCard(PRESENCE_KEY);
+        return count != null ? count.intValue() : 0;
+    }
+
+    /**
+     * 集群在线用户ID列表
+     */
+    public Set<Long> getOnlineUsers() {
+        Set<String> members = stringRedisTemplate.opsForZSet()
+                .rangeByScore(PRESENCE_KEY, System.currentTimeMillis(), Double.POSITIVE_INFINITY);
+        Set<Long> userIds = new HashSet<>();
+        if (members != null) {
+            for (String member : members) {
+                userIds.add(Long.valueOf(member));
+            }
+        }
+        return userIds;
+    }
+
+    private double expireAt() {
+        return System.currentTimeMillis() + ttlSeconds * 1000;
+    }
+}
@@ -0,0 +1,211 @@
+// 21. Redis限流服务
+package com.dating.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 通用限流：每次检查只执行一个Lua脚本，判断与计数在Redis内原子完成，集群各节点共享配额
+ * 支持固定窗口（含固定间隔，即窗口内限1次）、滑动窗口、令牌桶三种策略
+ * 滑动窗口与令牌桶以Redis服务器时间计时，不受各节点时钟偏差影响
+ * Redis不可用时放行，与原有短信限制的容错方式一致
+ */
+@Slf4j
+@Service
+public class RedisRateLimiter {
+
+    private static final String KEY_PREFIX = "rate:";
+
+    // 固定窗口：首次计数时设置过期，之后的请求不再续期窗口
+    // 返回 {是否放行, 需等待毫秒数, 剩余次数}
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> FIXED_WINDOW_SCRIPT = new DefaultRedisScript<>(
+            "local count = redis.call('INCR', KEYS[1]) " +
+            "local ttl = redis.call('PTTL', KEYS[1]) " +
+            "if count == 1 or ttl < 0 then " +
+            "  redis.call('PEXPIRE', KEYS[1], ARGV[2]) " +
+            "  ttl = tonumber(ARGV[2]) " +
+            "end " +
+            "local limit = tonumber(ARGV[1]) " +
+            "if count > limit then return {0, ttl, 0} end " +
+            "return {1, 0, limit - count}", List.class);
+
+    // 滑动窗口：有序集合记录窗口内每次放行的时间，ARGV[3]保证同一毫秒内的成员不重复
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> SLIDING_WINDOW_SCRIPT = new DefaultRedisScript<>(
+            "redis.replicate_commands() " +
+            "local time = redis.call('TIME') " +
+            "local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000) " +
+            "local limit = tonumber(ARGV[1]) " +
+            "local window = tonumber(ARGV[2]) " +
+            "redis.call('ZREMRANGEBYSCORE', KEYS[1], '-inf', now - window) " +
+            "local count = redis.call('ZCARD', KEYS[1]) " +
+            "if count < limit then " +
+            "  redis.call('ZADD', KEYS[1], now, now .. '-' .. ARGV[3]) " +
+            "  redis.call('PEXPIRE', KEYS[1], window) " +
+            "  return {1, 0, limit - count - 1} " +
+            "end " +
+            "local oldest = redis.call('ZRANGE', KEYS[1], 0, 0, 'WITHSCORES') " +
+            "return {0, math.max(1, tonumber(oldest[2]) + window - now), 0}", List.class);
+
+    // 令牌桶：hash保存剩余令牌与上次补充时间，按流逝时间补充，桶满后闲置的key自然过期
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> TOKEN_BUCKET_SCRIPT = new DefaultRedisScript<>(
+            "redis.replicate_commands() " +
+            "local time = redis.call('TIME') " +
+            "local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000) " +
+            "local capacity = tonumber(ARGV[1]) " +
+            "local rate = tonumber(ARGV[2]) " +
+            "local state = redis.call('HMGET', KEYS[1], 'tokens', 'ts') " +
+            "local tokens = tonumber(state[1]) " +
+            "local ts = tonumber(state[2]) " +
+            "if tokens == nil or ts == nil then tokens = capacity ts = now end " +
+            "tokens = math.min(capacity, tokens + math.max(0, now - ts) * rate) " +
+            "local allowed = 0 " +
+            "local wait = 0 " +
+            "if tokens >= 1 then " +
+            "  tokens = tokens - 1 " +
+            "  allowed = 1 " +
+            "else " +
+            "  wait = math.ceil((1 - tokens) / rate) " +
+            "end " +
+            "redis.call('HMSET', KEYS[1], 'tokens', tokens, 'ts', now) " +
+            "redis.call('PEXPIRE', KEYS[1], math.ceil(capacity / rate) + 1000) " +
+            "return {allowed, wait, math.floor(tokens)}", List.class);
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * 尝试获取一次许可，key由调用方区分业务与维度（如 sms:daily:{phone}）
+     */
+    public Decision tryAcquire(String key, Policy policy) {
+        List<String> keys = Collections.singletonList(KEY_PREFIX + key);
+        List<?> result;
+        try {
+            switch (policy.getType()) {
+                case FIXED_WINDOW:
+                    result = stringRedisTemplate.execute(FIXED_WINDOW_SCRIPT, keys,
+                            String.valueOf(policy.getLimit()), String.valueOf(policy.getWindowMillis()));
+                    break;
+                case SLIDING_WINDOW:
+                    result = stringRedisTemplate.execute(SLIDING_WINDOW_SCRIPT, keys,
+                            String.valueOf(policy.getLimit()), String.valueOf(policy.getWindowMillis()),
+                            Long.toHexString(ThreadLocalRandom.current().nextLong()));
+                    break;
+                default:
+                    result = stringRedisTemplate.execute(TOKEN_BUCKET_SCRIPT, keys,
+                            String.valueOf(policy.getLimit()), String.valueOf(policy.getRefillPerMillis()));
+                    break;
+            }
+        } catch (Exception e) {
+            failures.increment();
+            log.error("限流检查失败，放行：key={}", key, e);
+            return Decision.PASS;
+        }
+
+        if (result == null || result.size() < 3) {
+            failures.increment();
+            return Decision.PASS;
+        }
+        Decision decision = new Decision(toLong(result.get(0)) == 1, toLong(result.get(1)), toLong(result.get(2)));
+        if (decision.isAllowed()) {
+            allowed.increment();
+        } else {
+            rejected.increment();
+        }
+        return decision;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("allowed", allowed.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("failures", failures.sum());
+        return stats;
+    }
+
+    private long toLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(String.valueOf(value));
+    }
+
+    /**
+     * 限流策略
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Policy {
+
+        public enum Type {
+            FIXED_WINDOW, SLIDING_WINDOW, TOKEN_BUCKET
+        }
+
+        private final Type type;
+        private final long limit; // 窗口内次数上限，令牌桶为桶容量
+        private final long windowMillis;
+        private final double refillPerMillis; // 令牌桶每毫秒补充的令牌数
+
+        /**
+         * 固定窗口：从第一次请求起的窗口内最多limit次
+         */
+        public static Policy fixedWindow(long limit, long window, TimeUnit unit) {
+            return new Policy(Type.FIXED_WINDOW, limit, unit.toMillis(window), 0);
+        }
+
+        /**
+         * 固定间隔：两次请求之间至少间隔interval
+         */
+        public static Policy fixedInterval(long interval, TimeUnit unit) {
+            return fixedWindow(1, interval, unit);
+        }
+
+        /**
+         * 滑动窗口：任意连续window时间内最多limit次
+         */
+        public static Policy slidingWindow(long limit, long window, TimeUnit unit) {
+            return new Policy(Type.SLIDING_WINDOW, limit, unit.toMillis(window), 0);
+        }
+
+        /**
+         * 令牌桶：允许capacity的突发，长期速率为每秒refillPerSecond次
+         */
+        public static Policy tokenBucket(long capacity, double refillPerSecond) {
+            return new Policy(Type.TOKEN_BUCKET, capacity, 0, refillPerSecond / 1000.0);
+        }
+    }
+
+    /**
+     * 限流结果
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Decision {
+
+        static final Decision PASS = new Decision(true, 0, -1);
+
+        private final boolean allowed;
+        private final long retryAfterMillis; // 被拒绝时距下次可能放行的毫秒数
+        private final long remaining; // 剩余次数，-1表示未知
+
+        public long getRetryAfterSeconds() {
+            return (retryAfterMillis + 999) / 1000;
+        }
+    }
+}
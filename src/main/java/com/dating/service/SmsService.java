@@ -4,13 +4,13 @@ import com.dating.entity.SmsCode;
 import com.dating.mapper.SmsCodeMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.time.Duration;
-import java.time.LocalDateTime;
+import javax.annotation.PostConstruct;
 import java.util.Date;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 @Service
 @Slf4j
@@ -20,26 +20,37 @@ public class SmsService {
     private SmsCodeMapper smsCodeMapper;
 
     @Autowired
-    private RedisTemplate<String, String> redisTemplate;
+    private RedisRateLimiter redisRateLimiter;
 
-    private static final String SMS_LIMIT_PREFIX = "sms_limit:";
-    private static final int SMS_LIMIT_COUNT = 5; // 每日限制次数
-    private static final int SMS_INTERVAL = 60; // 发送间隔(秒)
+    @Value("${rate-limit.sms.daily-limit:5}")
+    private int dailyLimit; // 每日限制次数
+
+    @Value("${rate-limit.sms.interval-seconds:60}")
+    private int intervalSeconds; // 发送间隔(秒)
+
+    private RedisRateLimiter.Policy dailyPolicy;
+    private RedisRateLimiter.Policy intervalPolicy;
+
+    @PostConstruct
+    public void init() {
+        dailyPolicy = RedisRateLimiter.Policy.fixedWindow(dailyLimit, 1, TimeUnit.DAYS);
+        intervalPolicy = RedisRateLimiter.Policy.fixedInterval(intervalSeconds, TimeUnit.SECONDS);
+    }
 
     /**
      * 发送短信验证码
      */
     public boolean sendSmsCode(String phone, Integer type, String ip) {
         try {
-            // 1. 检查发送限制
-            if (!checkSendLimit(phone)) {
-                log.warn("短信发送超限：phone={}", phone);
+            // 1. 检查发送间隔（检查与计数原子完成，并发请求只有一个能通过）
+            if (!redisRateLimiter.tryAcquire("sms:interval:" + phone + ":" + type, intervalPolicy).isAllowed()) {
+                log.warn("短信发送间隔不足：phone={}, type={}", phone, type);
                 return false;
             }
 
-            // 2. 检查发送间隔
-            if (!checkSendInterval(phone, type)) {
-                log.warn("短信发送间隔不足：phone={}, type={}", phone, type);
+            // 2. 检查每日发送限制（间隔未通过的请求不占用每日次数）
+            if (!redisRateLimiter.tryAcquire("sms:daily:" + phone, dailyPolicy).isAllowed()) {
+                log.warn("短信发送超限：phone={}", phone);
                 return false;
             }
 
@@ -61,15 +72,7 @@ public class SmsService {
             smsCode.setExpireTime(new Date(System.currentTimeMillis() + 5 * 60 * 1000)); // 5分钟过期
             smsCode.setIp(ip);
 
-            boolean saveResult = smsCodeMapper.insert(smsCode) > 0;
-
-            // 6. 更新限制计数
-            if (saveResult) {
-                updateSendLimit(phone);
-                updateSendInterval(phone, type);
-            }
-
-            return saveResult;
+            return smsCodeMapper.insert(smsCode) > 0;
 
         } catch (Exception e) {
             log.error("发送短信验证码失败：phone={}, type={}", phone, type, e);
@@ -112,58 +115,6 @@ public class SmsService {
         return true;
     }
 
-    /**
-     * 检查每日发送限制
-     */
-    private boolean checkSendLimit(String phone) {
-        try {
-            String key = SMS_LIMIT_PREFIX + "daily:" + phone;
-            String count = redisTemplate.opsForValue().get(key);
-            return count == null || Integer.parseInt(count) < SMS_LIMIT_COUNT;
-        } catch (Exception e) {
-            log.error("检查发送限制失败：phone={}", phone, e);
-            return true; // 异常时允许发送
-        }
-    }
-
-    /**
-     * 检查发送间隔
-     */
-    private boolean checkSendInterval(String phone, Integer type) {
-        try {
-            String key = SMS_LIMIT_PREFIX + "interval:" + phone + ":" + type;
-            return !Boolean.TRUE.equals(redisTemplate.hasKey(key));
-        } catch (Exception e) {
-            log.error("检查发送间隔失败：phone={}, type={}", phone, type, e);
-            return true; // 异常时允许发送
-        }
-    }
-
-    /**
-     * 更新发送限制计数
-     */
-    private void updateSendLimit(String phone) {
-        try {
-            String key = SMS_LIMIT_PREFIX + "daily:" + phone;
-            redisTemplate.opsForValue().increment(key);
-            redisTemplate.expire(key, Duration.ofDays(1));
-        } catch (Exception e) {
-            log.error("更新发送限制计数失败：phone={}", phone, e);
-        }
-    }
-
-    /**
-     * 更新发送间隔
-     */
-    private void updateSendInterval(String phone, Integer type) {
-        try {
-            String key = SMS_LIMIT_PREFIX + "interval:" + phone + ":" + type;
-            redisTemplate.opsForValue().set(key, "1", Duration.ofSeconds(SMS_INTERVAL));
-        } catch (Exception e) {
-            log.error("更新发送间隔失败：phone={}, type={}", phone, type, e);
-        }
-    }
-
     /**
      * 清理过期验证码（定时任务调用）
      */
@@ -0,0 +1,271 @@
+// 12. 未读消息计数服务
+package com.dating.service;
+
+import com.dating.dto.ChatContact;
+import com.dating.entity.ChatMessage;
+import com.dating.mapper.ChatMessageMapper;
+import com.dating.util.SnowflakeIdGenerator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redis未读计数：每个用户一个hash，field为发送者ID，另有total字段记录总数
+ * 计数只在key存在时增减，key不存在（过期/首次）时从数据库对账重建
+ * 重建期间先写入pending标记，这段时间的增量按"发送者:消息ID"记入pending集合，
+ * 装载时与数据库中最近settle-ms内的未读消息按消息ID去重合并，避免统计与装载之间的增量丢失
+ */
+@Slf4j
+@Service
+public class UnreadCounterService {
+
+    private static final String UNREAD_KEY_PREFIX = "chat:unread:";
+    private static final String PENDING_KEY_PREFIX = "chat:unread:pending:";
+    private static final String TOTAL_FIELD = "total";
+    private static final long KEY_TTL_SECONDS = TimeUnit.DAYS.toSeconds(1);
+    private static final long PENDING_TTL_SECONDS = 60;
+
+    private static final StringRedisSerializer STRING_SERIALIZER = new StringRedisSerializer();
+
+    // 批量增加：KEYS按(计数key, pending key)成对，ARGV按(发送者, 增量, 逗号分隔的消息ID)成组
+    // 计数key存在时直接累加；正在重建时把消息记入pending集合，由装载脚本合并
+    private static final DefaultRedisScript<Long> INCREMENT_SCRIPT = new DefaultRedisScript<>(
+            "local a = 1 " +
+            "for i = 1, #KEYS, 2 do " +
+            "  if redis.call('EXISTS', KEYS[i]) == 1 then " +
+            "    redis.call('HINCRBY', KEYS[i], ARGV[a], ARGV[a + 1]) " +
+            "    redis.call('HINCRBY', KEYS[i], 'total', ARGV[a + 1]) " +
+            "  elseif redis.call('EXISTS', KEYS[i + 1]) == 1 then " +
+            "    for id in string.gmatch(ARGV[a + 2], '[^,]+') do " +
+            "      redis.call('SADD', KEYS[i + 1], ARGV[a] .. ':' .. id) " +
+            "    end " +
+            "  end " +
+            "  a = a + 3 " +
+            "end " +
+            "return #KEYS / 2", Long.class);
+
+    // 清零某个发送者的未读数并从总数中扣除；同时作废进行中的重建（数据库状态已变化）
+    private static final DefaultRedisScript<Long> RESET_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('DEL', KEYS[2]) " +
+            "local count = redis.call('HGET', KEYS[1], ARGV[1]) " +
+            "if count then " +
+            "  redis.call('HDEL', KEYS[1], ARGV[1]) " +
+            "  redis.call('HINCRBY', KEYS[1], 'total', -tonumber(count)) " +
+            "  return tonumber(count) " +
+            "end " +
+            "return 0", Long.class);
+
+    // 开始重建：计数key不存在时写入pending标记，之后的增量记入pending集合
+    private static final DefaultRedisScript<Long> BEGIN_REBUILD_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 1 then return 0 end " +
+            "redis.call('SADD', KEYS[2], '#') " +
+            "redis.call('EXPIRE', KEYS[2], ARGV[1]) " +
+            "return 1", Long.class);
+
+    // 装载重建结果：ARGV[1]为过期秒数，ARGV[2]为基础计数的field/value对数，其后为这些对，
+    // 再之后为数据库中最近的"发送者:消息ID"，与pending集合取并集后逐条累加
+    // 计数key已存在或pending标记已被作废时不写入
+    private static final DefaultRedisScript<Long> LOAD_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 1 or redis.call('EXISTS', KEYS[2]) == 0 then return 0 end " +
+            "local n = tonumber(ARGV[2]) " +
+            "for i = 3, 2 + 2 * n, 2 do " +
+            "  redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 1]) " +
+            "end " +
+            "for i = 3 + 2 * n, #ARGV do " +
+            "  redis.call('SADD', KEYS[2], ARGV[i]) " +
+            "end " +
+            "for _, member in ipairs(redis.call('SMEMBERS', KEYS[2])) do " +
+            "  local from = string.match(member, '^(%d+):') " +
+            "  if from then " +
+            "    redis.call('HINCRBY', KEYS[1], from, 1) " +
+            "    redis.call('HINCRBY', KEYS[1], 'total', 1) " +
+            "  end " +
+            "end " +
+            "redis.call('DEL', KEYS[2]) " +
+            "redis.call('EXPIRE', KEYS[1], ARGV[1]) " +
+            "return 1", Long.class);
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Autowired
+    private ChatMessageMapper chatMessageMapper;
+
+    // 最近该时间内生成的消息可能尚未落库，重建时逐条按ID去重
+    @Value("${chat.sync.settle-ms:5000}")
+    private long settleMs;
+
+    /**
+     * 消息落库后按接收者、发送者聚合增加未读数，一批消息一次往返
+     */
+    public void onMessagesSaved(List<ChatMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        Map<String, List<Long>> deltas = new LinkedHashMap<>();
+        for (ChatMessage message : messages) {
+            deltas.computeIfAbsent(message.getToUserId() + ":" + message.getFromUserId(), key -> new ArrayList<>())
+                    .add(message.getId());
+        }
+
+        List<String> keys = new ArrayList<>(deltas.size() * 2);
+        List<Object> args = new ArrayList<>(deltas.size() * 3);
+        for (Map.Entry<String, List<Long>> entry : deltas.entrySet()) {
+            String[] parts = entry.getKey().split(":");
+            keys.add(UNREAD_KEY_PREFIX + parts[0]);
+            keys.add(PENDING_KEY_PREFIX + parts[0]);
+            args.add(parts[1]);
+            args.add(String.valueOf(entry.getValue().size()));
+            StringBuilder ids = new StringBuilder();
+            for (Long id : entry.getValue()) {
+                if (ids.length() > 0) {
+                    ids.append(',');
+                }
+                ids.append(id);
+            }
+            args.add(ids.toString());
+        }
+
+        try {
+            redisTemplate.execute(INCREMENT_SCRIPT, STRING_SERIALIZER, null, keys, args.toArray());
+        } catch (Exception e) {
+            // 失败的计数会在key过期后从数据库对账修正
+            log.error("更新未读计数失败，消息数：{}", messages.size(), e);
+        }
+    }
+
+    /**
+     * 清零来自某个发送者的未读数
+     */
+    public void reset(Long userId, Long fromUserId) {
+        try {
+            redisTemplate.execute(RESET_SCRIPT, STRING_SERIALIZER, null,
+                    Arrays.asList(UNREAD_KEY_PREFIX + userId, PENDING_KEY_PREFIX + userId), String.valueOf(fromUserId));
+        } catch (Exception e) {
+            log.error("清零未读计数失败：userId={}, fromUserId={}", userId, fromUserId, e);
+            evict(userId);
+        }
+    }
+
+    /**
+     * 获取用户未读总数
+     */
+    public int getTotal(Long userId) {
+        try {
+            Object total = redisTemplate.opsForHash().get(UNREAD_KEY_PREFIX + userId, TOTAL_FIELD);
+            if (total == null) {
+                return toInt(reconcile(userId).get(TOTAL_FIELD));
+            }
+            return toInt(total);
+        } catch (Exception e) {
+            log.error("读取未读计数失败，回退数据库：userId={}", userId, e);
+            return chatMessageMapper.getUnreadCount(userId);
+        }
+    }
+
+    /**
+     * 获取用户按发送者分组的未读数
+     */
+    public Map<Long, Integer> getBreakdown(Long userId) {
+        Map<Object, Object> entries;
+        try {
+            entries = redisTemplate.opsForHash().entries(UNREAD_KEY_PREFIX + userId);
+            if (entries.isEmpty()) {
+                entries = reconcile(userId);
+            }
+        } catch (Exception e) {
+            log.error("读取未读计数明细失败，回退数据库：userId={}", userId, e);
+            entries = loadFromDatabase(userId);
+        }
+
+        Map<Long, Integer> breakdown = new HashMap<>();
+        for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+            String field = String.valueOf(entry.getKey());
+            if (!TOTAL_FIELD.equals(field)) {
+                int count = toInt(entry.getValue());
+                if (count > 0) {
+                    breakdown.put(Long.valueOf(field), count);
+                }
+            }
+        }
+        return breakdown;
+    }
+
+    /**
+     * 删除用户的未读计数缓存
+     */
+    public void evict(Long userId) {
+        try {
+            redisTemplate.delete(Arrays.asList(UNREAD_KEY_PREFIX + userId, PENDING_KEY_PREFIX + userId));
+        } catch (Exception e) {
+            log.error("删除未读计数缓存失败：userId={}", userId, e);
+        }
+    }
+
+    /**
+     * 从数据库统计未读数并写入Redis（仅当key仍不存在时）
+     * 已稳定落库的消息按发送者计数，最近settle-ms内的消息逐条取出，与重建期间的增量按消息ID去重
+     */
+    private Map<Object, Object> reconcile(Long userId) {
+        String key = UNREAD_KEY_PREFIX + userId;
+        List<String> keys = Arrays.asList(key, PENDING_KEY_PREFIX + userId);
+        redisTemplate.execute(BEGIN_REBUILD_SCRIPT, STRING_SERIALIZER, null, keys, String.valueOf(PENDING_TTL_SECONDS));
+
+        long boundary = SnowflakeIdGenerator.minIdAt(System.currentTimeMillis() - settleMs);
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        int total = 0;
+        for (ChatContact contact : chatMessageMapper.getUnreadCountBySenderBefore(userId, boundary)) {
+            counts.put(String.valueOf(contact.getContactUserId()), contact.getUnreadCount());
+            total += contact.getUnreadCount();
+        }
+        counts.put(TOTAL_FIELD, total);
+        List<ChatMessage> recent = chatMessageMapper.findUnreadSince(userId, boundary);
+
+        List<Object> args = new ArrayList<>(counts.size() * 2 + recent.size() + 2);
+        args.add(String.valueOf(KEY_TTL_SECONDS));
+        args.add(String.valueOf(counts.size()));
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            args.add(entry.getKey());
+            args.add(String.valueOf(entry.getValue()));
+        }
+        for (ChatMessage message : recent) {
+            args.add(message.getFromUserId() + ":" + message.getId());
+        }
+        redisTemplate.execute(LOAD_SCRIPT, STRING_SERIALIZER, null, keys, args.toArray());
+
+        // 装载结果已合并重建期间的增量；重建被作废时回退为数据库全量统计
+        Map<Object, Object> entries = redisTemplate.opsForHash().entries(key);
+        return entries.isEmpty() ? loadFromDatabase(userId) : entries;
+    }
+
+    private Map<Object, Object> loadFromDatabase(Long userId) {
+        Map<Object, Object> counts = new HashMap<>();
+        int total = 0;
+        for (ChatContact contact : chatMessageMapper.getUnreadCountBySender(userId)) {
+            counts.put(String.valueOf(contact.getContactUserId()), contact.getUnreadCount());
+            total += contact.getUnreadCount();
+        }
+        counts.put(TOTAL_FIELD, total);
+        return counts;
+    }
+
+    private int toInt(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        return value == null ? 0 : Integer.parseInt(value.toString());
+    }
+}
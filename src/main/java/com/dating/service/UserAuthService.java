@@ -4,10 +4,13 @@ import com.dating.entity.UserAuth;
 import com.dating.mapper.UserAuthMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 @Service
 @Slf4j
@@ -17,17 +20,52 @@ public class UserAuthService {
     private UserAuthMapper userAuthMapper;
 
     @Autowired
-    private PasswordEncoder passwordEncoder;
+    private PasswordHashingService passwordHashingService;
+
+    @Autowired
+    private RedisRateLimiter redisRateLimiter;
+
+    @Value("${rate-limit.login.ip-limit:20}")
+    private int ipLimit;
+
+    @Value("${rate-limit.login.ip-window-seconds:60}")
+    private int ipWindowSeconds;
+
+    @Value("${rate-limit.login.phone-limit:10}")
+    private int phoneLimit;
+
+    @Value("${rate-limit.login.phone-window-seconds:900}")
+    private int phoneWindowSeconds;
+
+    private RedisRateLimiter.Policy ipPolicy;
+    private RedisRateLimiter.Policy phonePolicy;
+
+    @PostConstruct
+    public void init() {
+        ipPolicy = RedisRateLimiter.Policy.slidingWindow(ipLimit, ipWindowSeconds, TimeUnit.SECONDS);
+        phonePolicy = RedisRateLimiter.Policy.slidingWindow(phoneLimit, phoneWindowSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 登录频率限制：按IP和手机号分别做滑动窗口，在密码校验之前拦截撞库与暴力破解
+     */
+    public RedisRateLimiter.Decision acquireLoginAttempt(String phone, String ip) {
+        RedisRateLimiter.Decision decision = redisRateLimiter.tryAcquire("login:ip:" + ip, ipPolicy);
+        if (!decision.isAllowed()) {
+            return decision;
+        }
+        return redisRateLimiter.tryAcquire("login:phone:" + phone, phonePolicy);
+    }
 
     /**
-     * 创建用户认证信息
+     * 创建用户认证信息，密码已由PasswordHashingService计算哈希
      */
-    public boolean createUserAuth(Long userId, String phone, String password) {
+    public boolean createUserAuth(Long userId, String phone, String encodedPassword) {
         try {
             UserAuth userAuth = new UserAuth();
             userAuth.setUserId(userId);
             userAuth.setPhone(phone);
-            userAuth.setPassword(passwordEncoder.encode(password));
+            userAuth.setPassword(encodedPassword);
             userAuth.setLoginType(1); // 手机号登录
             userAuth.setLoginCount(0);
             userAuth.setStatus(1);
@@ -40,19 +78,41 @@ public class UserAuthService {
     }
 
     /**
-     * 验证用户登录
+     * 验证用户登录，密码校验在哈希线程池中执行，失败时结果为null
+     * 哈希强度低于当前配置时，登录成功后异步按新强度重新计算并保存
      */
-    public UserAuth authenticateUser(String phone, String password) {
+    public CompletableFuture<UserAuth> authenticateUser(String phone, String password) {
+        UserAuth userAuth;
         try {
-            UserAuth userAuth = userAuthMapper.findByPhoneAndLoginType(phone, 1);
-            if (userAuth != null && passwordEncoder.matches(password, userAuth.getPassword())) {
-                return userAuth;
-            }
-            return null;
+            userAuth = userAuthMapper.findByPhoneAndLoginType(phone, 1);
         } catch (Exception e) {
             log.error("用户认证失败：phone={}", phone, e);
-            return null;
+            return CompletableFuture.completedFuture(null);
+        }
+        if (userAuth == null) {
+            return CompletableFuture.completedFuture(null);
         }
+
+        return passwordHashingService.matches(password, userAuth.getPassword())
+                .thenApply(matched -> {
+                    if (!matched) {
+                        return null;
+                    }
+                    if (passwordHashingService.needsRehash(userAuth.getPassword())) {
+                        rehash(userAuth, password);
+                    }
+                    return userAuth;
+                });
+    }
+
+    private void rehash(UserAuth userAuth, String password) {
+        passwordHashingService.encode(password)
+                .thenAccept(encoded -> userAuthMapper.updatePassword(userAuth.getId(), encoded))
+                .exceptionally(e -> {
+                    // 下次登录再尝试
+                    log.warn("重新计算密码哈希失败：authId={}，{}", userAuth.getId(), e.getMessage());
+                    return null;
+                });
     }
 
     /**
@@ -80,13 +140,12 @@ public class UserAuthService {
     }
 
     /**
-     * 修改密码
+     * 修改密码，新密码已计算哈希
      */
-    public boolean changePassword(String phone, String newPassword) {
+    public boolean changePassword(String phone, String encodedPassword) {
         try {
             UserAuth userAuth = userAuthMapper.findByPhoneAndLoginType(phone, 1);
             if (userAuth != null) {
-                String encodedPassword = passwordEncoder.encode(newPassword);
                 return userAuthMapper.updatePassword(userAuth.getId(), encodedPassword) > 0;
             }
             return false;
@@ -3,14 +3,42 @@ package com.dating.service;
 
 import com.dating.entity.UserPhoto;
 import com.dating.mapper.UserPhotoMapper;
+import com.dating.util.TransactionUtil;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * 用户相册：照片列表在各节点本地缓存，变更后经 photo:invalidate 频道通知所有节点失效
+ */
+@Slf4j
 @Service
-public class UserPhotoService {
+public class UserPhotoService implements MessageListener {
+
+    private static final String INVALIDATE_CHANNEL = "photo:invalidate";
+
+    // 含生成中缩略图的相册缓存时间，缩略图生成后尽快拿到新地址
+    private static final long PENDING_EXPIRE_SECONDS = 10;
 
     @Autowired
     private UserPhotoMapper userPhotoMapper;
@@ -18,6 +46,51 @@ public class UserPhotoService {
     @Autowired
     private DataIntegrityService dataIntegrityService;
 
+    @Autowired
+    private PhotoVariantService photoVariantService;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${cache.user-photos.maximum-size:50000}")
+    private long maximumSize;
+
+    @Value("${cache.user-photos.expire-seconds:600}")
+    private long expireSeconds;
+
+    // 相册缓存：userId -> 按展示顺序排列的照片（已填充缩略图地址），增删、设头像、排序后失效
+    private LoadingCache<Long, List<UserPhoto>> photoListCache;
+
+    @PostConstruct
+    public void init() {
+        photoListCache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(new Expiry<Long, List<UserPhoto>>() {
+                    @Override
+                    public long expireAfterCreate(Long key, List<UserPhoto> value, long currentTime) {
+                        boolean pending = value.stream().anyMatch(photo ->
+                                photo.getVariantStatus() != null && photo.getVariantStatus() == PhotoVariantService.STATUS_PENDING);
+                        return TimeUnit.SECONDS.toNanos(pending ? PENDING_EXPIRE_SECONDS : expireSeconds);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(Long key, List<UserPhoto> value, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, value, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(Long key, List<UserPhoto> value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build(this::loadUserPhotos);
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(INVALIDATE_CHANNEL));
+    }
+
     /**
      * 添加用户照片
      */
@@ -28,11 +101,29 @@ public class UserPhotoService {
             throw new IllegalArgumentException("用户不存在或状态异常");
         }
 
+        boolean asAvatar = userPhoto.getIsAvatar() != null && userPhoto.getIsAvatar() == 1;
+        userPhoto.setIsAvatar(0);
+        userPhoto.setVariantStatus(photoVariantService.initialStatus(userPhoto.getPhotoUrl()));
+        boolean inserted;
         try {
-            return userPhotoMapper.insert(userPhoto) > 0;
+            inserted = userPhotoMapper.insert(userPhoto) > 0;
+            if (inserted && asAvatar) {
+                // 与设置头像走同一条语句，清除旧头像并回写users.avatar
+                userPhotoMapper.setAvatar(userPhoto.getUserId(), userPhoto.getId());
+                userPhoto.setIsAvatar(1);
+            }
         } catch (Exception e) {
             throw new RuntimeException("添加用户照片失败", e);
         }
+
+        // 提交后再异步生成缩略图，保证后台线程能看到照片记录
+        Long userId = userPhoto.getUserId();
+        TransactionUtil.afterCommit(() -> {
+            invalidatePhotoList(userId);
+            photoVariantService.submit(userPhoto);
+        });
+        userPhoto.setVariantUrls(photoVariantService.variantUrls(userPhoto));
+        return inserted;
     }
 
     /**
@@ -43,32 +134,54 @@ public class UserPhotoService {
             return null;
         }
 
-        return userPhotoMapper.findByUserId(userId);
+        return photoListCache.get(userId);
     }
 
     /**
-     * 设置头像
+     * 设置头像：一条语句切换头像标记并回写users.avatar
      */
-    @Transactional
     public boolean setAvatar(Long userId, Long photoId) {
         if (!dataIntegrityService.validateUser(userId)) {
             throw new IllegalArgumentException("用户不存在或状态异常");
         }
 
-        // 验证照片是否属于该用户
-        UserPhoto photo = userPhotoMapper.findById(photoId);
-        if (photo == null || !photo.getUserId().equals(userId)) {
+        int updated;
+        try {
+            updated = userPhotoMapper.setAvatar(userId, photoId);
+        } catch (Exception e) {
+            throw new RuntimeException("设置头像失败", e);
+        }
+        if (updated == 0) {
             throw new IllegalArgumentException("照片不存在或不属于该用户");
         }
 
+        invalidatePhotoList(userId);
+        return true;
+    }
+
+    /**
+     * 批量调整照片顺序：photoIds为期望的展示顺序，一条语句更新
+     */
+    public int reorderPhotos(Long userId, List<Long> photoIds) {
+        if (!dataIntegrityService.validateUser(userId)) {
+            throw new IllegalArgumentException("用户不存在或状态异常");
+        }
+        if (photoIds == null || photoIds.isEmpty()) {
+            throw new IllegalArgumentException("照片列表不能为空");
+        }
+        if (photoIds.contains(null) || new HashSet<>(photoIds).size() != photoIds.size()) {
+            throw new IllegalArgumentException("照片列表包含空值或重复照片");
+        }
+
+        int updated;
         try {
-            // 清除旧头像标记
-            userPhotoMapper.clearAvatarFlag(userId);
-            // 设置新头像
-            return userPhotoMapper.setAsAvatar(photoId) > 0;
+            updated = userPhotoMapper.batchUpdateSortOrder(userId, photoIds);
         } catch (Exception e) {
-            throw new RuntimeException("设置头像失败", e);
+            throw new RuntimeException("调整照片顺序失败", e);
         }
+
+        invalidatePhotoList(userId);
+        return updated;
     }
 
     /**
@@ -77,5 +190,55 @@ public class UserPhotoService {
     @Transactional
     public void deleteUserPhotosByUserId(Long userId) {
         userPhotoMapper.deleteByUserId(userId);
+        TransactionUtil.afterCommit(() -> invalidatePhotoList(userId));
+    }
+
+    /**
+     * 相册缓存统计
+     */
+    public Map<String, Object> getPhotoListCacheStats() {
+        CacheStats stats = photoListCache.stats();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("size", photoListCache.estimatedSize());
+        metrics.put("hitCount", stats.hitCount());
+        metrics.put("missCount", stats.missCount());
+        metrics.put("hitRate", stats.hitRate());
+        metrics.put("loadCount", stats.loadCount());
+        metrics.put("loadFailureCount", stats.loadFailureCount());
+        metrics.put("averageLoadMillis", stats.averageLoadPenalty() / 1_000_000.0);
+        metrics.put("evictionCount", stats.evictionCount());
+        return metrics;
+    }
+
+    /**
+     * 接收其他节点（含本节点）的失效广播
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            photoListCache.invalidate(Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            log.error("处理相册缓存失效广播失败", e);
+        }
+    }
+
+    /**
+     * 失效本地相册缓存并广播给其他节点
+     */
+    private void invalidatePhotoList(Long userId) {
+        photoListCache.invalidate(userId);
+        try {
+            stringRedisTemplate.convertAndSend(INVALIDATE_CHANNEL, String.valueOf(userId));
+        } catch (Exception e) {
+            log.error("广播用户{}相册缓存失效失败", userId, e);
+        }
+    }
+
+    private List<UserPhoto> loadUserPhotos(Long userId) {
+        List<UserPhoto> photos = userPhotoMapper.findByUserId(userId);
+        for (UserPhoto photo : photos) {
+            photo.setVariantUrls(photoVariantService.variantUrls(photo));
+        }
+        return Collections.unmodifiableList(photos);
     }
-}
\ No newline at end of file
+}
@@ -4,6 +4,7 @@ import com.dating.entity.User;
 import com.dating.dto.UserRegisterRequest;
 import com.dating.mapper.UserMapper;
 import com.dating.exception.BusinessException;
+import com.dating.util.TransactionUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -24,11 +25,14 @@ public class UserService {
     @Autowired
     private SmsService smsService;
 
+    @Autowired
+    private DataIntegrityService dataIntegrityService;
+
     /**
-     * 用户注册
+     * 用户注册，密码已由PasswordHashingService计算哈希
      */
     @Transactional(rollbackFor = Exception.class)
-    public User registerUser(UserRegisterRequest request) {
+    public User registerUser(UserRegisterRequest request, String encodedPassword) {
         try {
             // 1. 创建用户基础信息
             User user = new User();
@@ -40,10 +44,13 @@ public class UserService {
                 boolean authResult = userAuthService.createUserAuth(
                         user.getId(),
                         request.getPhone(),
-                        request.getPassword()
+                        encodedPassword
                 );
 
                 if (authResult) {
+                    // 提交后清除该ID可能残留的状态缓存
+                    TransactionUtil.afterCommit(() -> dataIntegrityService.invalidateUserStatus(user.getId()));
+
                     // 3. 异步处理后续任务
                     asyncPostRegister(user.getId());
 
@@ -90,6 +97,25 @@ public class UserService {
         }
     }
 
+    /**
+     * 更新用户状态（1正常 2冻结 3注销），提交后失效各节点的状态缓存
+     * 用户状态只应通过此方法修改，直接调用UserMapper.updateStatus不会失效缓存
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public boolean updateStatus(Long userId, Integer status) {
+        boolean updated = userMapper.updateStatus(userId, status) > 0;
+        TransactionUtil.afterCommit(() -> dataIntegrityService.invalidateUserStatus(userId));
+        return updated;
+    }
+
+    /**
+     * 注销账号
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public boolean cancelAccount(Long userId) {
+        return updateStatus(userId, 3);
+    }
+
     /**
      * 设置用户默认值
      */
@@ -0,0 +1,142 @@
+// 16. 雪花ID节点号分配
+package com.dating.service;
+
+import com.dating.util.SnowflakeIdGenerator;
+import com.dating.websocket.ClusterNode;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 节点号优先取配置；未配置时在Redis中租用一个空闲号（id:worker:{n} = 节点ID），定期续租
+ * 租约到期前若一直未能续上，生成器停止发号；发现节点号已被其他节点占用时重新租用一个空闲号
+ * 续租在独立线程上执行，不受共享调度线程上长任务的影响
+ */
+@Slf4j
+@Component
+public class WorkerIdAllocator {
+
+    private static final String WORKER_KEY_PREFIX = "id:worker:";
+    private static final long LEASE_SECONDS = 300;
+    // 本地有效期比Redis中的租约提前结束，留出时钟偏差与续租耗时的余量
+    private static final long LEASE_MARGIN_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    // 每分钟续租一次
+    private static final long RENEW_INTERVAL_SECONDS = 60;
+
+    // 续租：仍归本节点则续期，已过期则重新占用，被其他节点占用返回0
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+            "local owner = redis.call('GET', KEYS[1]) " +
+            "if owner == ARGV[1] then " +
+            "  redis.call('EXPIRE', KEYS[1], ARGV[2]) " +
+            "  return 1 " +
+            "end " +
+            "if not owner then " +
+            "  redis.call('SET', KEYS[1], ARGV[1], 'EX', ARGV[2]) " +
+            "  return 1 " +
+            "end " +
+            "return 0", Long.class);
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private ClusterNode clusterNode;
+
+    // 留空表示从Redis租用
+    @Value("${cluster.worker-id:}")
+    private String configuredWorkerId;
+
+    private SnowflakeIdGenerator generator;
+    private boolean leased;
+    private ScheduledExecutorService renewer;
+
+    @PostConstruct
+    public void init() {
+        if (StringUtils.isNotBlank(configuredWorkerId)) {
+            generator = new SnowflakeIdGenerator(Long.parseLong(configuredWorkerId.trim()));
+        } else {
+            long leasedAt = System.currentTimeMillis();
+            generator = new SnowflakeIdGenerator(lease());
+            generator.extendLease(leaseValidUntil(leasedAt));
+            leased = true;
+            renewer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "Dating-WorkerLease");
+                thread.setDaemon(true);
+                return thread;
+            });
+            renewer.scheduleAtFixedRate(this::renew, RENEW_INTERVAL_SECONDS, RENEW_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+        log.info("雪花ID节点号：{}", generator.getWorkerId());
+    }
+
+    public SnowflakeIdGenerator getGenerator() {
+        return generator;
+    }
+
+    public void renew() {
+        if (!leased) {
+            return;
+        }
+        long workerId = generator.getWorkerId();
+        long renewedAt = System.currentTimeMillis();
+        try {
+            Long owned = stringRedisTemplate.execute(RENEW_SCRIPT,
+                    Collections.singletonList(WORKER_KEY_PREFIX + workerId),
+                    clusterNode.getNodeId(), String.valueOf(LEASE_SECONDS));
+            if (owned != null && owned == 1) {
+                generator.extendLease(leaseValidUntil(renewedAt));
+                return;
+            }
+            log.error("雪花ID节点号{}已被其他节点占用，暂停发号并重新租用", workerId);
+            generator.extendLease(0);
+            long newWorkerId = lease();
+            generator.reassign(newWorkerId, leaseValidUntil(renewedAt));
+            log.warn("雪花ID节点号由{}改为{}", workerId, newWorkerId);
+        } catch (Exception e) {
+            // 未续上时沿用原有效期，到期后生成器停止发号，直到下次续租成功
+            log.error("续租雪花ID节点号失败", e);
+        }
+    }
+
+    @PreDestroy
+    public void release() {
+        if (!leased) {
+            return;
+        }
+        renewer.shutdownNow();
+        try {
+            String key = WORKER_KEY_PREFIX + generator.getWorkerId();
+            if (clusterNode.getNodeId().equals(stringRedisTemplate.opsForValue().get(key))) {
+                stringRedisTemplate.delete(key);
+            }
+        } catch (Exception e) {
+            log.warn("释放雪花ID节点号失败", e);
+        }
+    }
+
+    private long lease() {
+        for (long candidate = 0; candidate <= SnowflakeIdGenerator.MAX_WORKER_ID; candidate++) {
+            Boolean acquired = stringRedisTemplate.opsForValue().setIfAbsent(
+                    WORKER_KEY_PREFIX + candidate, clusterNode.getNodeId(), LEASE_SECONDS, TimeUnit.SECONDS);
+            if (Boolean.TRUE.equals(acquired)) {
+                return candidate;
+            }
+        }
+        throw new IllegalStateException("没有空闲的雪花ID节点号，请配置 cluster.worker-id");
+    }
+
+    private long leaseValidUntil(long leasedAt) {
+        return leasedAt + TimeUnit.SECONDS.toMillis(LEASE_SECONDS) - LEASE_MARGIN_MILLIS;
+    }
+}
@@ -0,0 +1,50 @@
+// 2. 聊天会话键回填任务
+package com.dating.task;
+
+import com.dating.mapper.ChatMessageMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * 分批为历史消息回填 conversation_id，每批单独提交避免长事务锁表，
+ * 每次调度只处理一批，不长时间占用共享调度线程；全部回填完成后不再执行
+ */
+@Slf4j
+@Component
+public class ChatConversationBackfillTask {
+
+    @Autowired
+    private ChatMessageMapper chatMessageMapper;
+
+    @Value("${chat.backfill.batch-size:5000}")
+    private int batchSize;
+
+    private volatile boolean finished = false;
+
+    // 已回填条数
+    private long total = 0;
+
+    // 启动10秒后开始，每批之间间隔 chat.backfill.interval-ms
+    @Scheduled(initialDelay = 10000, fixedDelayString = "${chat.backfill.interval-ms:1000}")
+    public void backfillConversationId() {
+        if (finished) {
+            return;
+        }
+
+        try {
+            int updated = chatMessageMapper.backfillConversationId(batchSize);
+            total += updated;
+            if (updated < batchSize) {
+                if (total > 0) {
+                    log.info("回填聊天会话键完成，共处理 {} 条", total);
+                }
+                finished = true;
+            }
+        } catch (Exception e) {
+            log.error("回填聊天会话键失败，下次继续", e);
+        }
+    }
+}
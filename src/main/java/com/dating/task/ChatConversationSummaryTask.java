@@ -0,0 +1,97 @@
+// 3. 会话摘要重建任务
+package com.dating.task;
+
+import com.dating.mapper.UserMapper;
+import com.dating.service.ConversationSummaryService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 定期根据聊天消息重建会话摘要，修复增量维护产生的漂移
+ * 调度线程只负责提交，重建在独立线程上按批执行，每批用户一条语句、一个事务
+ */
+@Slf4j
+@Component
+public class ChatConversationSummaryTask {
+
+    @Autowired
+    private UserMapper userMapper;
+
+    @Autowired
+    private ConversationSummaryService conversationSummaryService;
+
+    // 每批重建的用户数
+    @Value("${chat.summary.rebuild-batch-size:100}")
+    private int batchSize;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private ExecutorService rebuilder;
+
+    @PostConstruct
+    public void init() {
+        rebuilder = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Dating-SummaryRebuild");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        rebuilder.shutdownNow();
+    }
+
+    /**
+     * 每天凌晨3点30分执行，上一次重建尚未结束时跳过
+     */
+    @Scheduled(cron = "0 30 3 * * ?")
+    public void rebuildSummaries() {
+        if (!running.compareAndSet(false, true)) {
+            log.warn("上一次会话摘要重建尚未结束，跳过本次");
+            return;
+        }
+        rebuilder.execute(() -> {
+            try {
+                rebuildAll();
+            } finally {
+                running.set(false);
+            }
+        });
+    }
+
+    private void rebuildAll() {
+        log.info("开始重建会话摘要");
+        long lastUserId = 0L;
+        int rebuilt = 0;
+        List<Long> userIds;
+        do {
+            if (Thread.currentThread().isInterrupted()) {
+                log.warn("会话摘要重建被中断，已处理 {} 个用户", rebuilt);
+                return;
+            }
+            userIds = userMapper.findIdsAfter(lastUserId, batchSize);
+            if (userIds.isEmpty()) {
+                break;
+            }
+            try {
+                conversationSummaryService.rebuild(userIds);
+                rebuilt += userIds.size();
+            } catch (Exception e) {
+                log.error("重建用户{}到{}的会话摘要失败", userIds.get(0), userIds.get(userIds.size() - 1), e);
+            }
+            lastUserId = userIds.get(userIds.size() - 1);
+        } while (userIds.size() == batchSize);
+        log.info("重建会话摘要完成，共处理 {} 个用户", rebuilt);
+    }
+}
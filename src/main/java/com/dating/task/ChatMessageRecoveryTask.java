@@ -0,0 +1,32 @@
+// 4. 待落库消息补写任务
+package com.dating.task;
+
+import com.dating.service.ChatMessageBatchWriter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * 定期补写待落库消息日志中的遗留消息：节点宕机时队列中的消息、逐条重试后仍写入失败的消息
+ * 每次调度只处理一批，各节点都会执行，按主键去重
+ */
+@Slf4j
+@Component
+public class ChatMessageRecoveryTask {
+
+    @Autowired
+    private ChatMessageBatchWriter chatMessageBatchWriter;
+
+    @Scheduled(initialDelay = 30000, fixedDelayString = "${chat.write-behind.recovery-interval-ms:60000}")
+    public void recoverStaleMessages() {
+        try {
+            int recovered = chatMessageBatchWriter.recoverStale();
+            if (recovered > 0) {
+                log.info("补写遗留消息{}条", recovered);
+            }
+        } catch (Exception e) {
+            log.error("补写遗留消息失败，下次继续", e);
+        }
+    }
+}
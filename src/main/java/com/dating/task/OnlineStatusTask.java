@@ -1,6 +1,7 @@
 // 11. 定时任务清理无效连接
 package com.dating.task;
 
+import com.dating.service.OfflineSyncService;
 import com.dating.service.OnlineStatusService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -14,11 +15,20 @@ public class OnlineStatusTask {
     @Autowired
     private OnlineStatusService onlineStatusService;
 
-    // 每30秒清理一次无效连接
-    @Scheduled(fixedRate = 30000)
+    @Autowired
+    private OfflineSyncService offlineSyncService;
+
+    // 兜底清理：失联连接由HeartbeatMonitor按心跳及时回收，这里每5分钟全量清理一次已关闭的连接
+    @Scheduled(fixedRate = 300000)
     public void cleanInactiveSessions() {
         onlineStatusService.cleanInactiveSessions();
-        int onlineCount = onlineStatusService.getOnlineCount();
-        log.debug("当前在线用户数量: {}", onlineCount);
+        int onlineCount = onlineStatusService.getLocalOnlineCount();
+        log.debug("当前节点在线用户数量: {}", onlineCount);
+    }
+
+    // 每秒批量写入已送达消息的下发水位
+    @Scheduled(fixedDelay = 1000)
+    public void flushDeliveryWatermarks() {
+        offlineSyncService.flushWatermarks();
     }
 }
@@ -1,5 +1,6 @@
 package com.dating.task;
 
+import com.dating.service.PhotoVariantService;
 import com.dating.service.SmsService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -13,6 +14,9 @@ public class ScheduledTasks {
     @Autowired
     private SmsService smsService;
 
+    @Autowired
+    private PhotoVariantService photoVariantService;
+
     /**
      * 每小时清理过期验证码
      */
@@ -22,4 +26,15 @@ public class ScheduledTasks {
         smsService.clearExpiredCodes();
         log.info("清理过期验证码完成");
     }
+
+    /**
+     * 每5分钟重新提交仍在生成中的缩略图任务
+     */
+    @Scheduled(fixedRate = 300000)
+    public void resubmitPendingPhotoVariants() {
+        int count = photoVariantService.resubmitPending();
+        if (count > 0) {
+            log.info("重新提交缩略图任务{}个", count);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,81 @@
+package com.dating.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 长整型ID的布隆过滤器：不存在一定判断正确，存在有fpp的误判率
+ * 位数组使用AtomicLongArray，并发写入与读取无需加锁
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray bits;
+    private final long bitSize;
+    private final int numHashFunctions;
+
+    private BloomFilter(long bitSize, int numHashFunctions) {
+        this.bitSize = bitSize;
+        this.numHashFunctions = numHashFunctions;
+        this.bits = new AtomicLongArray((int) ((bitSize + 63) >>> 6));
+    }
+
+    /**
+     * 按预期元素数和误判率计算位数与哈希函数个数
+     */
+    public static BloomFilter create(long expectedInsertions, double fpp) {
+        long n = Math.max(expectedInsertions, 1);
+        long bitSize = Math.max(64, (long) (-n * Math.log(fpp) / (Math.log(2) * Math.log(2))));
+        int numHashFunctions = Math.max(1, (int) Math.round((double) bitSize / n * Math.log(2)));
+        return new BloomFilter(bitSize, numHashFunctions);
+    }
+
+    public void put(long value) {
+        long hash = mix(value);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= numHashFunctions; i++) {
+            long index = index(hash1 + i * hash2);
+            int word = (int) (index >>> 6);
+            long mask = 1L << index;
+            long current;
+            do {
+                current = bits.get(word);
+                if ((current & mask) != 0) {
+                    break;
+                }
+            } while (!bits.compareAndSet(word, current, current | mask));
+        }
+    }
+
+    public boolean mightContain(long value) {
+        long hash = mix(value);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= numHashFunctions; i++) {
+            long index = index(hash1 + i * hash2);
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 占用内存字节数
+     */
+    public long sizeInBytes() {
+        return (long) bits.length() * 8;
+    }
+
+    private long index(int combinedHash) {
+        // 取非负值
+        return (combinedHash & Integer.MAX_VALUE) % bitSize;
+    }
+
+    // splitmix64 混淆，使连续ID的哈希值分布均匀
+    private static long mix(long value) {
+        long z = value + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -1,27 +1,77 @@
 package com.dating.util;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.io.Encoders;
 import io.jsonwebtoken.security.Keys;
+import lombok.AllArgsConstructor;
+import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import javax.crypto.SecretKey;
 import javax.servlet.http.HttpServletRequest;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @Component
 public class JwtUtil {
+
+    // 拦截器校验通过后写入请求属性的用户ID
+    public static final String USER_ID_ATTRIBUTE = "userId";
+
     @Value("${jwt.secret:datingplatform}")
     private String secret;
 
     @Value("${jwt.expire:604800}")
     private int expire;
 
+    @Value("${jwt.cache.maximum-size:100000}")
+    private long cacheMaximumSize;
+
+    // 已验签Token缓存：Token摘要 -> 用户ID与过期时间，条目在Token过期时失效
+    private Cache<String, VerifiedToken> verifiedTokenCache;
+
+    @PostConstruct
+    public void init() {
+        verifiedTokenCache = Caffeine.newBuilder()
+                .maximumSize(cacheMaximumSize)
+                .expireAfter(new Expiry<String, VerifiedToken>() {
+                    @Override
+                    public long expireAfterCreate(String key, VerifiedToken value, long currentTime) {
+                        long remaining = value.getExpiresAt() - System.currentTimeMillis();
+                        return TimeUnit.MILLISECONDS.toNanos(Math.max(remaining, 0));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, VerifiedToken value, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, value, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, VerifiedToken value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
     /**
      * 生成Token
      */
@@ -48,18 +98,38 @@ public class JwtUtil {
         System.out.println(base64Key);
     }
 
+    /**
+     * 校验Token并返回用户ID与过期时间，同一Token只在首次出现时验签
+     * 过期抛出ExpiredJwtException，其他无效情况抛出JwtException
+     */
+    public VerifiedToken verify(String token) {
+        String key = hash(token);
+        VerifiedToken cached = verifiedTokenCache.getIfPresent(key);
+        if (cached != null) {
+            if (cached.getExpiresAt() <= System.currentTimeMillis()) {
+                verifiedTokenCache.invalidate(key);
+                throw new ExpiredJwtException(null, null, "Token已过期");
+            }
+            return cached;
+        }
+
+        Claims claims = Jwts.parser()
+                .setSigningKey(secret)
+                .parseClaimsJws(token)
+                .getBody();
+        VerifiedToken verified = new VerifiedToken(claims.getSubject(), claims.getExpiration().getTime());
+        verifiedTokenCache.put(key, verified);
+        return verified;
+    }
+
     /**
      * 从Token中获取用户ID
      */
     public String getUserIdFromToken(String token) {
         try {
-            Claims claims = Jwts.parser()
-                    .setSigningKey(secret)
-                    .parseClaimsJws(token)
-                    .getBody();
-            return claims.getSubject();
+            return verify(token).getUserId();
         } catch (Exception e) {
-            log.error("从Token中获取用户ID失败：token={}", token, e);
+            log.warn("从Token中获取用户ID失败：{}", e.getMessage());
             return null;
         }
     }
@@ -69,10 +139,10 @@ public class JwtUtil {
      */
     public boolean validateToken(String token) {
         try {
-            Jwts.parser().setSigningKey(secret).parseClaimsJws(token);
+            verify(token);
             return true;
         } catch (Exception e) {
-            log.error("验证Token失败：token={}", token, e);
+            log.warn("验证Token失败：{}", e.getMessage());
             return false;
         }
     }
@@ -82,24 +152,60 @@ public class JwtUtil {
      */
     public boolean isTokenExpired(String token) {
         try {
-            Claims claims = Jwts.parser()
-                    .setSigningKey(secret)
-                    .parseClaimsJws(token)
-                    .getBody();
-            return claims.getExpiration().before(new Date());
+            verify(token);
+            return false;
         } catch (Exception e) {
-            log.error("检查Token过期失败：token={}", token, e);
             return true;
         }
     }
 
+    /**
+     * 获取当前请求的用户ID：优先取拦截器已校验的结果，未经过拦截器时再校验请求头中的Token
+     */
     public Long getUserIdFromRequest(HttpServletRequest request) {
+        Object verified = request.getAttribute(USER_ID_ATTRIBUTE);
+        if (verified != null) {
+            return Long.valueOf(verified.toString());
+        }
+
         String token = request.getHeader("Authorization");
         if (token != null && token.startsWith("Bearer ")) {
-            token = token.substring(7);
-            return Long.valueOf(getUserIdFromToken(token));
+            String userId = getUserIdFromToken(token.substring(7));
+            return userId != null ? Long.valueOf(userId) : null;
         }
         return null;
     }
 
-}
\ No newline at end of file
+    public Map<String, Object> getCacheStats() {
+        CacheStats stats = verifiedTokenCache.stats();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("size", verifiedTokenCache.estimatedSize());
+        result.put("hitCount", stats.hitCount());
+        result.put("missCount", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        result.put("evictionCount", stats.evictionCount());
+        return result;
+    }
+
+    /**
+     * 缓存键为Token的SHA-256摘要，不在内存中保存原始Token
+     */
+    private String hash(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 已验签的Token信息
+     */
+    @Data
+    @AllArgsConstructor
+    public static class VerifiedToken {
+        private String userId;
+        private long expiresAt; // 过期时间戳（毫秒）
+    }
+}
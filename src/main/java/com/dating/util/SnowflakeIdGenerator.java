@@ -0,0 +1,109 @@
+package com.dating.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 雪花ID：1位符号 + 41位毫秒时间戳 + 10位节点号 + 12位序列号，单节点内严格递增，跨节点按时间大致有序
+ * 时间戳与序列号合并保存在一个AtomicLong中，通过CAS无锁推进：
+ * 同一毫秒内序列号用尽时进位到下一毫秒；时钟回拨时沿用上次时间戳继续递增，不阻塞也不抛异常
+ * 节点号从Redis租用时带有效期，租约到期前未续上则停止生成，避免与接手该节点号的节点重复
+ * 节点号与有效期作为一个不可变对象整体发布，生成时只读取一次，二者不会来自不同的租约
+ */
+public class SnowflakeIdGenerator {
+
+    // 2024-01-01 00:00:00 UTC
+    public static final long EPOCH = 1704067200000L;
+
+    private static final int SEQUENCE_BITS = 12;
+    private static final int WORKER_BITS = 10;
+    public static final long MAX_WORKER_ID = (1L << WORKER_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final int TIMESTAMP_SHIFT = SEQUENCE_BITS + WORKER_BITS;
+
+    // 配置的节点号不过期
+    private volatile Lease lease;
+
+    // 高位为相对时间戳，低12位为序列号
+    private final AtomicLong state = new AtomicLong();
+
+    public SnowflakeIdGenerator(long workerId) {
+        this.lease = new Lease(toWorkerBits(workerId), Long.MAX_VALUE);
+    }
+
+    public long nextId() {
+        Lease current = lease;
+        long millis = System.currentTimeMillis();
+        if (millis >= current.validUntil) {
+            throw new IllegalStateException("雪花ID节点号租约已失效，暂停生成ID");
+        }
+        for (;;) {
+            long previous = state.get();
+            long now = millis - EPOCH;
+            // 进入新的毫秒则序列号归零，否则加一（溢出自动进位到时间戳）
+            long next = now > (previous >>> SEQUENCE_BITS) ? now << SEQUENCE_BITS : previous + 1;
+            if (state.compareAndSet(previous, next)) {
+                long timestamp = next >>> SEQUENCE_BITS;
+                // 以ID中的时间戳校验租约：接手该节点号的节点只会生成有效期之后的时间戳，不会重复
+                if (timestamp + EPOCH >= current.validUntil) {
+                    throw new IllegalStateException("雪花ID节点号租约已失效，暂停生成ID");
+                }
+                return (timestamp << TIMESTAMP_SHIFT) | current.workerBits | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    /**
+     * 续租成功后延长节点号有效期
+     */
+    public synchronized void extendLease(long validUntil) {
+        this.lease = new Lease(lease.workerBits, validUntil);
+    }
+
+    /**
+     * 更换节点号：时间戳推进到下一毫秒，保证之后的ID仍大于已生成的ID
+     */
+    public synchronized void reassign(long workerId, long validUntil) {
+        long bits = toWorkerBits(workerId);
+        this.lease = new Lease(bits, 0);
+        state.getAndUpdate(current -> ((current >>> SEQUENCE_BITS) + 1) << SEQUENCE_BITS);
+        this.lease = new Lease(bits, validUntil);
+    }
+
+    public long getWorkerId() {
+        return lease.workerBits >>> SEQUENCE_BITS;
+    }
+
+    /**
+     * 指定时间点之前生成的ID都小于该值
+     */
+    public static long minIdAt(long epochMillis) {
+        return Math.max(0L, epochMillis - EPOCH) << TIMESTAMP_SHIFT;
+    }
+
+    /**
+     * 解析ID中的生成时间
+     */
+    public static long timestampOf(long id) {
+        return (id >>> TIMESTAMP_SHIFT) + EPOCH;
+    }
+
+    private static long toWorkerBits(long workerId) {
+        if (workerId < 0 || workerId > MAX_WORKER_ID) {
+            throw new IllegalArgumentException("节点号必须在0到" + MAX_WORKER_ID + "之间");
+        }
+        return workerId << SEQUENCE_BITS;
+    }
+
+    /**
+     * 节点号及其有效期（毫秒时间戳）
+     */
+    private static final class Lease {
+        private final long workerBits;
+        private final long validUntil;
+
+        private Lease(long workerBits, long validUntil) {
+            this.workerBits = workerBits;
+            this.validUntil = validUntil;
+        }
+    }
+}
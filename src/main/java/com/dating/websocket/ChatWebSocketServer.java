@@ -3,34 +3,43 @@ package com.dating.websocket;
 
 import com.dating.dto.ChatMessageRequest;
 import com.dating.dto.ChatMessageResponse;
+import com.dating.dto.ErrorFrame;
 import com.dating.entity.ChatMessage;
 import com.dating.service.ChatService;
+import com.dating.service.OfflineSyncService;
 import com.dating.service.OnlineStatusService;
+import com.dating.service.RedisRateLimiter;
 import com.dating.util.JwtUtil;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.websocket.*;
 import javax.websocket.server.PathParam;
 import javax.websocket.server.ServerEndpoint;
 import java.io.IOException;
-
-import static com.dating.service.OnlineStatusService.USER_SESSIONS;
+import java.util.Collections;
 
 @Slf4j
 @Component
 @ServerEndpoint("/ws/chat/{token}")
 public class ChatWebSocketServer {
 
+    private static final String PRESENCE_SUBSCRIBE = "presence.subscribe";
+    private static final String PRESENCE_UNSUBSCRIBE = "presence.unsubscribe";
+
     private static ChatService chatService;
     private static JwtUtil jwtUtils;
     private static ObjectMapper objectMapper;
     private static OnlineStatusService onlineStatusService;
-
-    // 存储用户连接
-//    private static final ConcurrentHashMap<Long, Session> USER_SESSIONS = new ConcurrentHashMap<>();
+    private static MessageDispatcher messageDispatcher;
+    private static ClusterMessageRelay clusterMessageRelay;
+    private static OfflineSyncService offlineSyncService;
+    private static HeartbeatMonitor heartbeatMonitor;
+    private static RedisRateLimiter redisRateLimiter;
+    private static RedisRateLimiter.Policy messagePolicy;
 
     @Autowired
     public void setChatService(ChatService chatService) {
@@ -47,14 +56,50 @@ public class ChatWebSocketServer {
         ChatWebSocketServer.objectMapper = objectMapper;
     }
 
+    @Autowired
+    public void setOnlineStatusService(OnlineStatusService onlineStatusService) {
+        ChatWebSocketServer.onlineStatusService = onlineStatusService;
+    }
+
+    @Autowired
+    public void setMessageDispatcher(MessageDispatcher messageDispatcher) {
+        ChatWebSocketServer.messageDispatcher = messageDispatcher;
+    }
+
+    @Autowired
+    public void setClusterMessageRelay(ClusterMessageRelay clusterMessageRelay) {
+        ChatWebSocketServer.clusterMessageRelay = clusterMessageRelay;
+    }
+
+    @Autowired
+    public void setOfflineSyncService(OfflineSyncService offlineSyncService) {
+        ChatWebSocketServer.offlineSyncService = offlineSyncService;
+    }
+
+    @Autowired
+    public void setHeartbeatMonitor(HeartbeatMonitor heartbeatMonitor) {
+        ChatWebSocketServer.heartbeatMonitor = heartbeatMonitor;
+    }
+
+    @Autowired
+    public void setRedisRateLimiter(RedisRateLimiter redisRateLimiter,
+                                    @Value("${rate-limit.websocket.capacity:20}") int capacity,
+                                    @Value("${rate-limit.websocket.refill-per-second:5}") double refillPerSecond) {
+        ChatWebSocketServer.redisRateLimiter = redisRateLimiter;
+        ChatWebSocketServer.messagePolicy = RedisRateLimiter.Policy.tokenBucket(capacity, refillPerSecond);
+    }
+
     @OnOpen
     public void onOpen(Session session, @PathParam("token") String token) {
         try {
             // 验证token并获取用户ID
             Long userId = Long.valueOf(jwtUtils.getUserIdFromToken(token));
             if (userId != null) {
-                USER_SESSIONS.put(userId, session);
+                onlineStatusService.addUser(userId, session);
+                heartbeatMonitor.register(session);
                 log.info("用户{}连接WebSocket成功", userId);
+                // 推送离线期间的消息
+                offlineSyncService.syncAsync(userId, session);
             } else {
                 session.close();
                 log.warn("WebSocket连接失败：token无效");
@@ -71,16 +116,40 @@ public class ChatWebSocketServer {
 
     @OnMessage
     public void onMessage(String message, Session session) {
+        heartbeatMonitor.touch(session);
         try {
             // 使用Jackson解析消息
             ChatMessageRequest request = objectMapper.readValue(message, ChatMessageRequest.class);
 
             // 获取发送者ID
-            Long fromUserId = getUserIdBySession(session);
+            Long fromUserId = onlineStatusService.getUserIdBySession(session);
             if (fromUserId == null) {
                 return;
             }
 
+            // 在线状态订阅
+            if (PRESENCE_SUBSCRIBE.equals(request.getType())) {
+                onlineStatusService.subscribePresence(session,
+                        request.getUserIds() != null ? request.getUserIds() : Collections.<Long>emptyList());
+                return;
+            }
+            if (PRESENCE_UNSUBSCRIBE.equals(request.getType())) {
+                onlineStatusService.unsubscribePresence(session);
+                return;
+            }
+
+            // 聊天消息按用户限流（集群内所有设备共享令牌桶），超限的消息丢弃并告知客户端
+            RedisRateLimiter.Decision decision = redisRateLimiter.tryAcquire("ws:message:" + fromUserId, messagePolicy);
+            if (!decision.isAllowed()) {
+                log.warn("用户{}发送消息过于频繁", fromUserId);
+                ErrorFrame frame = new ErrorFrame();
+                frame.setCode(429);
+                frame.setMessage("发送过于频繁，请稍后重试");
+                frame.setRetryAfterMillis(decision.getRetryAfterMillis());
+                messageDispatcher.send(session, objectMapper.writeValueAsString(frame));
+                return;
+            }
+
             // 保存消息到数据库
             ChatMessage chatMessage = new ChatMessage();
             chatMessage.setFromUserId(fromUserId);
@@ -91,21 +160,20 @@ public class ChatWebSocketServer {
 
             chatService.saveMessage(chatMessage);
 
-            // 发送给接收者
-            Session toUserSession = USER_SESSIONS.get(request.getToUserId());
-            if (toUserSession != null && toUserSession.isOpen()) {
-                ChatMessageResponse response = new ChatMessageResponse();
-                response.setFromUserId(fromUserId);
-                response.setToUserId(request.getToUserId());
-                response.setMessageType(request.getMessageType());
-                response.setContent(request.getContent());
-                response.setMediaUrl(request.getMediaUrl());
-                response.setCreatedAt(chatMessage.getCreatedAt());
-
-                // 使用Jackson序列化响应
-                String responseJson = objectMapper.writeValueAsString(response);
-                toUserSession.getBasicRemote().sendText(responseJson);
-            }
+            // 推送给接收者在集群中的所有在线设备
+            ChatMessageResponse response = new ChatMessageResponse();
+            response.setId(chatMessage.getId());
+            response.setSeq(chatMessage.getSeq());
+            response.setFromUserId(fromUserId);
+            response.setToUserId(request.getToUserId());
+            response.setMessageType(request.getMessageType());
+            response.setContent(request.getContent());
+            response.setMediaUrl(request.getMediaUrl());
+            response.setCreatedAt(chatMessage.getCreatedAt());
+
+            // 使用Jackson序列化响应
+            String responseJson = objectMapper.writeValueAsString(response);
+            clusterMessageRelay.route(request.getToUserId(), chatMessage.getId(), responseJson);
 
             log.info("消息发送成功：{} -> {}", fromUserId, request.getToUserId());
 
@@ -114,11 +182,19 @@ public class ChatWebSocketServer {
         }
     }
 
+    // 客户端对心跳ping的响应
+    @OnMessage
+    public void onPong(PongMessage pong, Session session) {
+        heartbeatMonitor.touch(session);
+    }
+
     @OnClose
     public void onClose(Session session) {
-        Long userId = getUserIdBySession(session);
+        heartbeatMonitor.unregister(session);
+        messageDispatcher.release(session);
+        onlineStatusService.unsubscribePresence(session);
+        Long userId = onlineStatusService.removeSession(session);
         if (userId != null) {
-            USER_SESSIONS.remove(userId);
             log.info("用户{}断开WebSocket连接", userId);
         }
     }
@@ -127,12 +203,4 @@ public class ChatWebSocketServer {
     public void onError(Session session, Throwable error) {
         log.error("WebSocket连接异常", error);
     }
-
-    private Long getUserIdBySession(Session session) {
-        // 通过在线状态服务查找用户ID
-        return onlineStatusService.getOnlineUsers().stream()
-                .filter(userId -> session.equals(onlineStatusService.getUserSession(userId)))
-                .findFirst()
-                .orElse(null);
-    }
 }
\ No newline at end of file
@@ -0,0 +1,177 @@
+// 12. 跨节点消息中继
+package com.dating.websocket;
+
+import com.dating.service.OfflineSyncService;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 集群消息路由：本节点的连接直接投递，其余按用户路由目录转发到目标节点
+ * 转发先进入待发队列，由后台线程按批查询路由（一次管道往返）并按节点合并为一条pub/sub消息
+ * 每个节点订阅自己的频道 ws:relay:{nodeId}
+ */
+@Slf4j
+@Component
+public class ClusterMessageRelay implements MessageListener {
+
+    private static final String CHANNEL_PREFIX = "ws:relay:";
+    private static final TypeReference<List<RelayEnvelope>> ENVELOPE_LIST_TYPE = new TypeReference<List<RelayEnvelope>>() {
+    };
+
+    @Autowired
+    private OfflineSyncService offlineSyncService;
+
+    @Autowired
+    private UserRouteDirectory userRouteDirectory;
+
+    @Autowired
+    private ClusterNode clusterNode;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${cluster.relay.batch-size:500}")
+    private int batchSize;
+
+    @Value("${cluster.relay.flush-interval-ms:10}")
+    private long flushIntervalMs;
+
+    @Value("${cluster.relay.queue-capacity:100000}")
+    private int queueCapacity;
+
+    private LinkedBlockingQueue<RelayEnvelope> pending;
+    private ScheduledExecutorService flusher;
+
+    @PostConstruct
+    public void init() {
+        pending = new LinkedBlockingQueue<>(queueCapacity);
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CHANNEL_PREFIX + clusterNode.getNodeId()));
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Dating-ClusterRelay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushSafely, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushSafely();
+    }
+
+    /**
+     * 投递给用户在集群中的所有连接，messageId用于送达后推进下发水位
+     */
+    public void route(Long userId, Long messageId, String payload) {
+        offlineSyncService.deliverLive(userId, messageId, payload);
+        if (!pending.offer(new RelayEnvelope(userId, messageId, payload))) {
+            // 消息已落库，目标用户可在重连后同步
+            log.warn("跨节点转发队列已满，丢弃发往用户{}的转发", userId);
+        }
+    }
+
+    /**
+     * 接收其他节点转发来的消息，投递到本节点连接
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            List<RelayEnvelope> envelopes = objectMapper.readValue(
+                    new String(message.getBody(), StandardCharsets.UTF_8), ENVELOPE_LIST_TYPE);
+            for (RelayEnvelope envelope : envelopes) {
+                offlineSyncService.deliverLive(envelope.getUserId(), envelope.getMessageId(), envelope.getPayload());
+            }
+        } catch (Exception e) {
+            log.error("处理跨节点转发消息失败", e);
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            List<RelayEnvelope> batch = new ArrayList<>(batchSize);
+            while (pending.drainTo(batch, batchSize) > 0) {
+                flush(batch);
+                batch.clear();
+            }
+        } catch (Exception e) {
+            log.error("跨节点转发失败", e);
+        }
+    }
+
+    private void flush(List<RelayEnvelope> batch) throws Exception {
+        Set<Long> userIds = new LinkedHashSet<>();
+        for (RelayEnvelope envelope : batch) {
+            userIds.add(envelope.getUserId());
+        }
+        Map<Long, Set<String>> routes = userRouteDirectory.lookup(userIds);
+
+        String localNodeId = clusterNode.getNodeId();
+        Map<String, List<RelayEnvelope>> byNode = new HashMap<>();
+        for (RelayEnvelope envelope : batch) {
+            Set<String> nodes = routes.get(envelope.getUserId());
+            if (nodes == null) {
+                continue;
+            }
+            for (String nodeId : nodes) {
+                if (!localNodeId.equals(nodeId)) {
+                    byNode.computeIfAbsent(nodeId, key -> new ArrayList<>()).add(envelope);
+                }
+            }
+        }
+
+        for (Map.Entry<String, List<RelayEnvelope>> entry : byNode.entrySet()) {
+            stringRedisTemplate.convertAndSend(CHANNEL_PREFIX + entry.getKey(),
+                    objectMapper.writeValueAsString(entry.getValue()));
+        }
+    }
+
+    /**
+     * 转发信封
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class RelayEnvelope {
+        private Long userId;
+        private Long messageId;
+        private String payload;
+    }
+}
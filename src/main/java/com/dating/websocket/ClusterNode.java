@@ -0,0 +1,32 @@
+package com.dating.websocket;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.UUID;
+
+/**
+ * 当前节点标识，未配置时启动时随机生成
+ */
+@Slf4j
+@Component
+public class ClusterNode {
+
+    @Value("${cluster.node-id:}")
+    private String nodeId;
+
+    @PostConstruct
+    public void init() {
+        if (StringUtils.isBlank(nodeId)) {
+            nodeId = UUID.randomUUID().toString().replace("-", "").substring(0, 12);
+        }
+        log.info("当前集群节点ID：{}", nodeId);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+}
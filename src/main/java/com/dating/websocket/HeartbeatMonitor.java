@@ -0,0 +1,215 @@
+// 16. WebSocket心跳与空闲连接回收
+package com.dating.websocket;
+
+import com.dating.service.OnlineStatusService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.websocket.CloseReason;
+import javax.websocket.Session;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 服务端心跳：每个会话记录最后活跃时间（收到消息或pong），由时间轮在到期时检查
+ * 会话只挂在下一次检查时间对应的槽位上，活跃时只更新时间戳不移动槽位，到期检查时再按最新时间重新挂载
+ * 空闲超过一个心跳间隔发送ping，连续max-missed个间隔无响应则关闭连接；每个tick只处理当前槽位的会话
+ */
+@Slf4j
+@Component
+public class HeartbeatMonitor {
+
+    private static final String HEARTBEAT_KEY = "dating.heartbeat";
+    private static final ByteBuffer PING_PAYLOAD = ByteBuffer.wrap(new byte[]{'h', 'b'});
+
+    @Autowired
+    private OnlineStatusService onlineStatusService;
+
+    @Autowired
+    private MessageDispatcher messageDispatcher;
+
+    @Autowired
+    @Qualifier("wsWriterExecutor")
+    private Executor writerExecutor;
+
+    @Value("${chat.heartbeat.interval-seconds:15}")
+    private long intervalSeconds;
+
+    @Value("${chat.heartbeat.max-missed:3}")
+    private int maxMissed;
+
+    @Value("${chat.heartbeat.tick-ms:1000}")
+    private long tickMs;
+
+    private long intervalMs;
+    private long timeoutMs;
+    private Set<Heartbeat>[] wheel;
+    private volatile long processedTick;
+    private final AtomicLong evicted = new AtomicLong();
+    private ScheduledExecutorService ticker;
+
+    @PostConstruct
+    @SuppressWarnings("unchecked")
+    public void init() {
+        intervalMs = TimeUnit.SECONDS.toMillis(intervalSeconds);
+        timeoutMs = intervalMs * maxMissed;
+        // 槽位覆盖一个心跳间隔以上，挂载的检查时间不会超出一圈
+        int slots = (int) (intervalMs / tickMs) + 2;
+        wheel = new Set[slots];
+        for (int i = 0; i < slots; i++) {
+            wheel[i] = ConcurrentHashMap.newKeySet();
+        }
+        processedTick = System.currentTimeMillis() / tickMs;
+
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Dating-Heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleWithFixedDelay(this::advanceSafely, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ticker.shutdownNow();
+    }
+
+    /**
+     * 连接建立后开始跟踪
+     */
+    public void register(Session session) {
+        Heartbeat heartbeat = new Heartbeat(session, System.currentTimeMillis());
+        session.getUserProperties().put(HEARTBEAT_KEY, heartbeat);
+        schedule(heartbeat, heartbeat.lastSeen + intervalMs);
+    }
+
+    /**
+     * 收到消息或pong时刷新活跃时间
+     */
+    public void touch(Session session) {
+        Object heartbeat = session.getUserProperties().get(HEARTBEAT_KEY);
+        if (heartbeat instanceof Heartbeat) {
+            ((Heartbeat) heartbeat).lastSeen = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * 连接关闭后停止跟踪，时间轮中的条目在到期时丢弃
+     */
+    public void unregister(Session session) {
+        Object heartbeat = session.getUserProperties().remove(HEARTBEAT_KEY);
+        if (heartbeat instanceof Heartbeat) {
+            ((Heartbeat) heartbeat).cancelled = true;
+        }
+    }
+
+    public long getEvictedCount() {
+        return evicted.get();
+    }
+
+    private void schedule(Heartbeat heartbeat, long deadline) {
+        long tick = Math.max(deadline / tickMs, processedTick + 1);
+        wheel[(int) (tick % wheel.length)].add(heartbeat);
+    }
+
+    private void advanceSafely() {
+        try {
+            long now = System.currentTimeMillis();
+            long currentTick = now / tickMs;
+            while (processedTick < currentTick) {
+                long tick = processedTick + 1;
+                List<Heartbeat> due = drain(wheel[(int) (tick % wheel.length)]);
+                processedTick = tick;
+                for (Heartbeat heartbeat : due) {
+                    check(heartbeat, now);
+                }
+            }
+        } catch (Exception e) {
+            log.error("心跳检查异常", e);
+        }
+    }
+
+    private List<Heartbeat> drain(Set<Heartbeat> bucket) {
+        List<Heartbeat> due = new ArrayList<>(bucket.size());
+        Iterator<Heartbeat> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            due.add(iterator.next());
+            iterator.remove();
+        }
+        return due;
+    }
+
+    private void check(Heartbeat heartbeat, long now) {
+        if (heartbeat.cancelled) {
+            return;
+        }
+        Session session = heartbeat.session;
+        long idle = now - heartbeat.lastSeen;
+        if (!session.isOpen() || idle >= timeoutMs) {
+            evict(heartbeat, idle);
+            return;
+        }
+        if (idle >= intervalMs) {
+            ping(session);
+            schedule(heartbeat, now + intervalMs);
+        } else {
+            // 期间有活动，按最后活跃时间顺延
+            schedule(heartbeat, heartbeat.lastSeen + intervalMs);
+        }
+    }
+
+    private void ping(Session session) {
+        // 经出站队列发送，与消息写入串行
+        messageDispatcher.sendPing(session, PING_PAYLOAD.duplicate());
+    }
+
+    private void evict(Heartbeat heartbeat, long idle) {
+        heartbeat.cancelled = true;
+        evicted.incrementAndGet();
+        Session session = heartbeat.session;
+        log.info("会话{}心跳超时，空闲{}ms，关闭连接", session.getId(), idle);
+        // 半开连接上关闭可能阻塞到写超时，放到写线程池执行
+        writerExecutor.execute(() -> {
+            try {
+                if (session.isOpen()) {
+                    session.close(new CloseReason(CloseReason.CloseCodes.GOING_AWAY, "heartbeat timeout"));
+                    return;
+                }
+            } catch (Exception e) {
+                log.debug("关闭会话{}失败", session.getId(), e);
+            }
+            // 容器未回调onClose时自行清理
+            messageDispatcher.release(session);
+            onlineStatusService.unsubscribePresence(session);
+            onlineStatusService.removeSession(session);
+        });
+    }
+
+    /**
+     * 会话心跳状态
+     */
+    private static class Heartbeat {
+        private final Session session;
+        private volatile long lastSeen;
+        private volatile boolean cancelled;
+
+        private Heartbeat(Session session, long lastSeen) {
+            this.session = session;
+            this.lastSeen = lastSeen;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+// 10. WebSocket异步消息投递
+package com.dating.websocket;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.websocket.CloseReason;
+import javax.websocket.Session;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * 出站投递：每个会话一个有界队列，通过getAsyncRemote()逐条异步发送，
+ * 调用方（容器处理入站帧的线程）只负责入队，不会被慢客户端阻塞
+ */
+@Slf4j
+@Component
+public class MessageDispatcher {
+
+    private static final String OUTBOUND_QUEUE_KEY = "dating.outboundQueue";
+
+    @Autowired
+    private SessionRegistry sessionRegistry;
+
+    @Autowired
+    @Qualifier("wsWriterExecutor")
+    private Executor writerExecutor;
+
+    @Value("${chat.outbound.queue-capacity:256}")
+    private int queueCapacity;
+
+    @Value("${chat.outbound.overflow-policy:DROP_OLDEST}")
+    private OverflowPolicy overflowPolicy;
+
+    /**
+     * 推送给用户的所有在线设备，返回成功入队的会话数
+     */
+    public int sendToUser(Long userId, String message) {
+        return sendToUser(userId, message, null);
+    }
+
+    /**
+     * 推送给用户的所有在线设备，onSent在每个会话发送成功后以该会话为参数回调
+     */
+    public int sendToUser(Long userId, String message, Consumer<Session> onSent) {
+        int delivered = 0;
+        for (Session session : sessionRegistry.getSessions(userId)) {
+            if (send(session, message, onSent != null ? () -> onSent.accept(session) : null)) {
+                delivered++;
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * 将消息放入会话出站队列，返回是否入队
+     */
+    public boolean send(Session session, String message) {
+        return send(session, message, null);
+    }
+
+    /**
+     * 将消息放入会话出站队列，onSent在异步发送成功后执行，返回是否入队
+     */
+    public boolean send(Session session, String message, Runnable onSent) {
+        if (!session.isOpen()) {
+            return false;
+        }
+
+        OutboundQueue queue = getQueue(session);
+        if (!queue.offer(message, onSent) && !handleOverflow(session, queue, message, onSent)) {
+            return false;
+        }
+
+        scheduleDrain(session, queue);
+        return true;
+    }
+
+    /**
+     * 心跳ping与消息经同一队列串行写出，避免与进行中的sendText并发写同一会话
+     * 队列已满说明仍有消息待发送，跳过本次ping，返回是否入队
+     */
+    public boolean sendPing(Session session, ByteBuffer payload) {
+        if (!session.isOpen()) {
+            return false;
+        }
+
+        OutboundQueue queue = getQueue(session);
+        if (!queue.offerPing(payload)) {
+            return false;
+        }
+
+        scheduleDrain(session, queue);
+        return true;
+    }
+
+    /**
+     * 会话关闭时释放出站队列
+     */
+    public void release(Session session) {
+        Object queue = session.getUserProperties().remove(OUTBOUND_QUEUE_KEY);
+        if (queue instanceof OutboundQueue) {
+            int remaining = ((OutboundQueue) queue).clear();
+            if (remaining > 0) {
+                log.info("会话{}关闭，丢弃{}条未发送消息", session.getId(), remaining);
+            }
+        }
+    }
+
+    /**
+     * 会话累计丢弃与发送失败的消息数
+     */
+    public long getLossCount(Session session) {
+        return getQueue(session).getLossCount();
+    }
+
+    /**
+     * 各会话出站队列指标
+     */
+    public List<Map<String, Object>> getQueueMetrics() {
+        List<Map<String, Object>> metrics = new ArrayList<>();
+        for (Map.Entry<Long, Set<Session>> entry : sessionRegistry.entries()) {
+            for (Session session : entry.getValue()) {
+                Object queue = session.getUserProperties().get(OUTBOUND_QUEUE_KEY);
+                if (!(queue instanceof OutboundQueue)) {
+                    continue;
+                }
+                OutboundQueue outboundQueue = (OutboundQueue) queue;
+                Map<String, Object> item = new LinkedHashMap<>();
+                item.put("userId", entry.getKey());
+                item.put("sessionId", session.getId());
+                item.put("queueDepth", outboundQueue.getDepth());
+                item.put("sent", outboundQueue.getSentCount());
+                item.put("dropped", outboundQueue.getDroppedCount());
+                item.put("failed", outboundQueue.getFailedCount());
+                metrics.add(item);
+            }
+        }
+        return metrics;
+    }
+
+    private OutboundQueue getQueue(Session session) {
+        Map<String, Object> properties = session.getUserProperties();
+        Object queue = properties.get(OUTBOUND_QUEUE_KEY);
+        if (queue == null) {
+            // 用户属性在Tomcat中为ConcurrentHashMap，putIfAbsent保证只创建一个队列
+            OutboundQueue created = new OutboundQueue(queueCapacity);
+            queue = properties.putIfAbsent(OUTBOUND_QUEUE_KEY, created);
+            if (queue == null) {
+                queue = created;
+            }
+        }
+        return (OutboundQueue) queue;
+    }
+
+    /**
+     * 队列已满时按溢出策略处理，返回消息是否最终入队
+     */
+    private boolean handleOverflow(Session session, OutboundQueue queue, String message, Runnable onSent) {
+        switch (overflowPolicy) {
+            case DROP_OLDEST:
+                queue.offerDropOldest(message, onSent);
+                return true;
+            case DISCONNECT:
+                queue.recordDropped();
+                log.warn("会话{}出站队列已满，断开慢连接", session.getId());
+                try {
+                    session.close(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, "outbound queue overflow"));
+                } catch (IOException e) {
+                    log.error("关闭慢连接异常", e);
+                }
+                return false;
+            case OFFLINE:
+            default:
+                // 消息已落库为未读，客户端重连后同步
+                queue.recordDropped();
+                log.debug("会话{}出站队列已满，消息转为离线", session.getId());
+                return false;
+        }
+    }
+
+    private void scheduleDrain(Session session, OutboundQueue queue) {
+        if (queue.tryStartSending()) {
+            writerExecutor.execute(() -> sendNext(session, queue));
+        }
+    }
+
+    /**
+     * 发送队首消息，发送完成回调中继续发送下一条；
+     * 回调切回写线程池执行，避免同步完成时递归过深
+     */
+    private void sendNext(Session session, OutboundQueue queue) {
+        if (!session.isOpen()) {
+            queue.clear();
+            queue.finishSending();
+            return;
+        }
+
+        OutboundQueue.Outbound outbound = queue.poll();
+        if (outbound == null) {
+            queue.finishSending();
+            // 释放标志与入队之间可能有新消息到达
+            if (!queue.isEmpty()) {
+                scheduleDrain(session, queue);
+            }
+            return;
+        }
+
+        if (outbound.isPing()) {
+            try {
+                session.getAsyncRemote().sendPing(outbound.getPing());
+            } catch (Exception e) {
+                log.debug("向会话{}发送心跳失败", session.getId(), e);
+            }
+            writerExecutor.execute(() -> sendNext(session, queue));
+            return;
+        }
+
+        try {
+            session.getAsyncRemote().sendText(outbound.getMessage(), result -> {
+                if (result.isOK()) {
+                    queue.recordSent();
+                    runOnSent(outbound);
+                } else {
+                    queue.recordFailed();
+                    log.warn("异步推送消息到会话{}失败", session.getId(), result.getException());
+                }
+                writerExecutor.execute(() -> sendNext(session, queue));
+            });
+        } catch (Exception e) {
+            queue.recordFailed();
+            log.warn("异步推送消息到会话{}异常", session.getId(), e);
+            writerExecutor.execute(() -> sendNext(session, queue));
+        }
+    }
+
+    private void runOnSent(OutboundQueue.Outbound outbound) {
+        if (outbound.getOnSent() == null) {
+            return;
+        }
+        try {
+            outbound.getOnSent().run();
+        } catch (Exception e) {
+            log.error("执行发送成功回调异常", e);
+        }
+    }
+}
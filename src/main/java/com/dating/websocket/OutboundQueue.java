@@ -0,0 +1,138 @@
+package com.dating.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单个WebSocket会话的有界出站队列
+ * 同一时刻最多只有一条消息处于异步发送中，由sending标志保证
+ * 消息可携带发送成功回调，在异步发送完成时执行；心跳ping也经由队列发送，与消息写入串行
+ */
+public class OutboundQueue {
+
+    private final LinkedBlockingQueue<Outbound> queue;
+    private final AtomicBoolean sending = new AtomicBoolean(false);
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    public OutboundQueue(int capacity) {
+        this.queue = new LinkedBlockingQueue<>(capacity);
+    }
+
+    public boolean offer(String message, Runnable onSent) {
+        return queue.offer(new Outbound(message, onSent, null));
+    }
+
+    /**
+     * ping入队，队列已满时不入队也不挤掉消息
+     */
+    public boolean offerPing(ByteBuffer payload) {
+        return queue.offer(new Outbound(null, null, payload));
+    }
+
+    /**
+     * 丢弃最旧的消息后入队
+     */
+    public void offerDropOldest(String message, Runnable onSent) {
+        Outbound outbound = new Outbound(message, onSent, null);
+        while (!queue.offer(outbound)) {
+            Outbound oldest = queue.poll();
+            // 挤掉的ping不计为消息丢失
+            if (oldest != null && !oldest.isPing()) {
+                droppedCount.incrementAndGet();
+            }
+        }
+    }
+
+    public Outbound poll() {
+        return queue.poll();
+    }
+
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    public int clear() {
+        int size = queue.size();
+        queue.clear();
+        return size;
+    }
+
+    public boolean tryStartSending() {
+        return sending.compareAndSet(false, true);
+    }
+
+    public void finishSending() {
+        sending.set(false);
+    }
+
+    public void recordSent() {
+        sentCount.incrementAndGet();
+    }
+
+    public void recordDropped() {
+        droppedCount.incrementAndGet();
+    }
+
+    public void recordFailed() {
+        failedCount.incrementAndGet();
+    }
+
+    public int getDepth() {
+        return queue.size();
+    }
+
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * 丢弃与发送失败的累计条数，不变说明期间入队的消息都已送达
+     */
+    public long getLossCount() {
+        return droppedCount.get() + failedCount.get();
+    }
+
+    /**
+     * 待发送的消息及发送成功回调，或一次心跳ping
+     */
+    public static class Outbound {
+
+        private final String message;
+        private final Runnable onSent;
+        private final ByteBuffer ping;
+
+        private Outbound(String message, Runnable onSent, ByteBuffer ping) {
+            this.message = message;
+            this.onSent = onSent;
+            this.ping = ping;
+        }
+
+        public boolean isPing() {
+            return ping != null;
+        }
+
+        public ByteBuffer getPing() {
+            return ping;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public Runnable getOnSent() {
+            return onSent;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.dating.websocket;
+
+/**
+ * 会话出站队列溢出策略
+ */
+public enum OverflowPolicy {
+
+    /**
+     * 丢弃队列中最旧的消息，为新消息腾出位置
+     */
+    DROP_OLDEST,
+
+    /**
+     * 断开慢连接，由客户端重连后重新同步
+     */
+    DISCONNECT,
+
+    /**
+     * 不再推送新消息，消息已落库为未读，按离线消息处理
+     */
+    OFFLINE
+}
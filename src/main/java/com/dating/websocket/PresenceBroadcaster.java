@@ -0,0 +1,125 @@
+// 15. 在线状态变化广播
+package com.dating.websocket;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 集群在线状态变化：各节点把本地产生的上下线变化在一个时间窗口内合并，窗口结束时一次广播到 presence:events
+ * 窗口内反复断线重连的用户，最终状态与窗口开始前相同时不广播
+ * 每个节点收到广播后推送给本地订阅者
+ */
+@Slf4j
+@Component
+public class PresenceBroadcaster implements MessageListener {
+
+    private static final String CHANNEL = "presence:events";
+    private static final TypeReference<Map<Long, Boolean>> CHANGES_TYPE = new TypeReference<Map<Long, Boolean>>() {
+    };
+
+    @Autowired
+    private PresenceSubscriptions presenceSubscriptions;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${presence.coalesce-ms:1000}")
+    private long coalesceMs;
+
+    // 窗口内的变化：用户ID -> [窗口开始前的状态, 最新状态]
+    private Map<Long, boolean[]> pending = new LinkedHashMap<>();
+    private ScheduledExecutorService flusher;
+
+    @PostConstruct
+    public void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CHANNEL));
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Dating-PresenceBroadcast");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushSafely, coalesceMs, coalesceMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdownNow();
+        flushSafely();
+    }
+
+    /**
+     * 记录一次上下线变化
+     */
+    public synchronized void onChange(Long userId, boolean online) {
+        boolean[] states = pending.get(userId);
+        if (states == null) {
+            pending.put(userId, new boolean[]{!online, online});
+        } else {
+            states[1] = online;
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            Map<Long, Boolean> changes = objectMapper.readValue(
+                    new String(message.getBody(), StandardCharsets.UTF_8), CHANGES_TYPE);
+            presenceSubscriptions.dispatch(changes);
+        } catch (Exception e) {
+            log.error("处理在线状态广播失败", e);
+        }
+    }
+
+    private void flushSafely() {
+        Map<Long, boolean[]> window;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            window = pending;
+            pending = new LinkedHashMap<>();
+        }
+
+        Map<Long, Boolean> changes = new HashMap<>();
+        for (Map.Entry<Long, boolean[]> entry : window.entrySet()) {
+            boolean[] states = entry.getValue();
+            if (states[0] != states[1]) {
+                changes.put(entry.getKey(), states[1]);
+            }
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        try {
+            stringRedisTemplate.convertAndSend(CHANNEL, objectMapper.writeValueAsString(changes));
+        } catch (Exception e) {
+            log.error("广播在线状态变化失败，变化数：{}", changes.size(), e);
+        }
+    }
+}
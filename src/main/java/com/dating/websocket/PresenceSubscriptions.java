@@ -0,0 +1,125 @@
+// 14. 在线状态订阅
+package com.dating.websocket;
+
+import com.dating.dto.PresenceFrame;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.websocket.Session;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 本节点的在线状态订阅：被订阅用户ID -> 订阅它的会话（反向索引），会话自己的订阅集合保存在会话属性中
+ * 状态变化时只推送给订阅了该用户的会话，同一批变化对每个会话合并为一帧
+ */
+@Slf4j
+@Component
+public class PresenceSubscriptions {
+
+    private static final String SUBSCRIPTIONS_KEY = "dating.presenceSubscriptions";
+
+    private final Map<Long, Set<Session>> subscribers = new ConcurrentHashMap<>();
+
+    @Autowired
+    private MessageDispatcher messageDispatcher;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${presence.max-subscriptions:1000}")
+    private int maxSubscriptions;
+
+    /**
+     * 设置会话订阅的用户集合（覆盖之前的订阅），返回实际订阅的用户ID
+     */
+    public Set<Long> subscribe(Session session, Collection<Long> userIds) {
+        Set<Long> targets = new LinkedHashSet<>();
+        for (Long userId : userIds) {
+            if (userId != null && targets.size() < maxSubscriptions) {
+                targets.add(userId);
+            }
+        }
+
+        unsubscribe(session);
+        session.getUserProperties().put(SUBSCRIPTIONS_KEY, targets);
+        for (Long userId : targets) {
+            subscribers.computeIfAbsent(userId, key -> ConcurrentHashMap.newKeySet()).add(session);
+        }
+        return targets;
+    }
+
+    /**
+     * 取消会话的全部订阅（会话关闭时调用）
+     */
+    @SuppressWarnings("unchecked")
+    public void unsubscribe(Session session) {
+        Object previous = session.getUserProperties().remove(SUBSCRIPTIONS_KEY);
+        if (!(previous instanceof Set)) {
+            return;
+        }
+        for (Long userId : (Set<Long>) previous) {
+            subscribers.computeIfPresent(userId, (key, sessions) -> {
+                sessions.remove(session);
+                return sessions.isEmpty() ? null : sessions;
+            });
+        }
+    }
+
+    /**
+     * 推送订阅时的全量状态
+     */
+    public void sendSnapshot(Session session, Set<Long> userIds, Collection<Long> onlineUserIds) {
+        PresenceFrame frame = new PresenceFrame();
+        frame.setSnapshot(true);
+        for (Long userId : userIds) {
+            if (onlineUserIds.contains(userId)) {
+                frame.getOnline().add(userId);
+            } else {
+                frame.getOffline().add(userId);
+            }
+        }
+        send(session, frame);
+    }
+
+    /**
+     * 将一批状态变化推送给本节点的订阅者
+     */
+    public void dispatch(Map<Long, Boolean> changes) {
+        Map<Session, PresenceFrame> frames = new HashMap<>();
+        for (Map.Entry<Long, Boolean> change : changes.entrySet()) {
+            Set<Session> sessions = subscribers.getOrDefault(change.getKey(), Collections.emptySet());
+            for (Session session : sessions) {
+                PresenceFrame frame = frames.computeIfAbsent(session, key -> new PresenceFrame());
+                if (change.getValue()) {
+                    frame.getOnline().add(change.getKey());
+                } else {
+                    frame.getOffline().add(change.getKey());
+                }
+            }
+        }
+        for (Map.Entry<Session, PresenceFrame> entry : frames.entrySet()) {
+            send(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public int getSubscribedUserCount() {
+        return subscribers.size();
+    }
+
+    private void send(Session session, PresenceFrame frame) {
+        try {
+            messageDispatcher.send(session, objectMapper.writeValueAsString(frame));
+        } catch (Exception e) {
+            log.error("推送在线状态失败", e);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+// 9. WebSocket会话注册表
+package com.dating.websocket;
+
+import org.springframework.stereotype.Component;
+
+import javax.websocket.Session;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * 用户与WebSocket会话的双向索引
+ * 正向：userId -> 该用户所有设备的会话集合；反向：用户ID绑定在Session.getUserProperties()上，
+ * 通过会话反查用户为O(1)且无需分配内存
+ * 查询与投递路径只做无锁读取，加锁仅发生在连接建立/断开时对单个用户桶的compute
+ */
+@Component
+public class SessionRegistry {
+
+    public static final String USER_ID_KEY = "dating.userId";
+
+    private final ConcurrentHashMap<Long, Set<Session>> userSessions = new ConcurrentHashMap<>();
+
+    /**
+     * 绑定用户与会话，返回该会话是否为用户的第一个在线设备
+     */
+    public boolean register(Long userId, Session session) {
+        session.getUserProperties().put(USER_ID_KEY, userId);
+        boolean[] first = new boolean[1];
+        userSessions.compute(userId, (key, sessions) -> {
+            if (sessions == null) {
+                sessions = ConcurrentHashMap.newKeySet();
+                first[0] = true;
+            }
+            sessions.add(session);
+            return sessions;
+        });
+        return first[0];
+    }
+
+    /**
+     * 解绑会话，用户最后一个会话移除时一并移除该用户，返回会话所属用户ID
+     */
+    public Long unregister(Session session) {
+        Long userId = getUserId(session);
+        if (userId != null) {
+            userSessions.computeIfPresent(userId, (key, sessions) -> {
+                sessions.remove(session);
+                return sessions.isEmpty() ? null : sessions;
+            });
+        }
+        return userId;
+    }
+
+    /**
+     * 移除用户的全部会话
+     */
+    public Set<Session> remove(Long userId) {
+        Set<Session> sessions = userSessions.remove(userId);
+        return sessions != null ? sessions : Collections.emptySet();
+    }
+
+    /**
+     * 移除满足条件的会话，返回移除的会话数
+     */
+    public int removeIf(Predicate<Session> filter) {
+        int[] removed = new int[1];
+        for (Long userId : userSessions.keySet()) {
+            userSessions.computeIfPresent(userId, (key, sessions) -> {
+                for (Session session : sessions) {
+                    if (filter.test(session) && sessions.remove(session)) {
+                        removed[0]++;
+                    }
+                }
+                return sessions.isEmpty() ? null : sessions;
+            });
+        }
+        return removed[0];
+    }
+
+    /**
+     * 通过会话反查用户ID
+     */
+    public Long getUserId(Session session) {
+        if (session == null) {
+            return null;
+        }
+        Object userId = session.getUserProperties().get(USER_ID_KEY);
+        return userId instanceof Long ? (Long) userId : null;
+    }
+
+    /**
+     * 获取用户所有设备的会话，返回的集合为只读视图
+     */
+    public Set<Session> getSessions(Long userId) {
+        Set<Session> sessions = userSessions.get(userId);
+        return sessions != null ? Collections.unmodifiableSet(sessions) : Collections.emptySet();
+    }
+
+    /**
+     * 用户是否存在打开的会话
+     */
+    public boolean hasOpenSession(Long userId) {
+        Set<Session> sessions = userSessions.get(userId);
+        if (sessions == null) {
+            return false;
+        }
+        for (Session session : sessions) {
+            if (session.isOpen()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Set<Long> getUserIds() {
+        return userSessions.keySet();
+    }
+
+    public Set<Map.Entry<Long, Set<Session>>> entries() {
+        return userSessions.entrySet();
+    }
+
+    public int size() {
+        return userSessions.size();
+    }
+}
@@ -0,0 +1,116 @@
+// 11. 用户连接节点目录
+package com.dating.websocket;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redis中记录用户的WebSocket连接在哪些节点上：ws:route:{userId} -> 有序集合，成员为节点ID，分数为该节点路由的过期时间
+ * 节点定期续期本地用户的路由；节点宕机后它的成员不再续期，读取时按分数过滤并清理，不受其他节点续期整个key的影响
+ * key本身也设置TTL，所有节点都不再续期时整体过期
+ */
+@Slf4j
+@Component
+public class UserRouteDirectory {
+
+    private static final String ROUTE_KEY_PREFIX = "ws:route:";
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private ClusterNode clusterNode;
+
+    @Value("${cluster.route-ttl-seconds:120}")
+    private long routeTtlSeconds;
+
+    /**
+     * 用户在本节点上线
+     */
+    public void register(Long userId) {
+        refresh(Collections.singletonList(userId));
+    }
+
+    /**
+     * 用户在本节点的最后一个连接断开
+     */
+    public void unregister(Long userId) {
+        try {
+            stringRedisTemplate.opsForZSet().remove(routeKey(userId), clusterNode.getNodeId());
+        } catch (Exception e) {
+            log.error("注销用户{}路由失败", userId, e);
+        }
+    }
+
+    /**
+     * 批量续期本节点用户的路由，一次管道往返
+     */
+    public void refresh(Collection<Long> userIds) {
+        if (userIds.isEmpty()) {
+            return;
+        }
+        String nodeId = clusterNode.getNodeId();
+        double deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(routeTtlSeconds);
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Long userId : userIds) {
+                    conn.zAdd(routeKey(userId), deadline, nodeId);
+                    conn.expire(routeKey(userId), routeTtlSeconds);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.error("续期用户路由失败，用户数：{}", userIds.size(), e);
+        }
+    }
+
+    /**
+     * 批量查询用户所在节点，一次管道往返；同时清理已过期的节点成员
+     */
+    @SuppressWarnings("unchecked")
+    public Map<Long, Set<String>> lookup(Collection<Long> userIds) {
+        Map<Long, Set<String>> routes = new HashMap<>();
+        if (userIds.isEmpty()) {
+            return routes;
+        }
+
+        List<Long> orderedIds = new ArrayList<>(userIds);
+        double now = System.currentTimeMillis();
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Long userId : orderedIds) {
+                conn.zRemRangeByScore(routeKey(userId), Double.NEGATIVE_INFINITY, now);
+                conn.zRangeByScore(routeKey(userId), now, Double.POSITIVE_INFINITY);
+            }
+            return null;
+        });
+
+        for (int i = 0; i < orderedIds.size(); i++) {
+            // 每个用户两条命令，第二条为查询结果
+            Object nodes = results.get(i * 2 + 1);
+            if (nodes instanceof Set && !((Set<?>) nodes).isEmpty()) {
+                routes.put(orderedIds.get(i), (Set<String>) nodes);
+            }
+        }
+        return routes;
+    }
+
+    public static String routeKey(Long userId) {
+        return ROUTE_KEY_PREFIX + userId;
+    }
+}
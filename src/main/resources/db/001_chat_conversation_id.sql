@@ -0,0 +1,37 @@
+-- 聊天消息增加对称会话键 conversation_id = 较小用户ID_较大用户ID
+-- 新代码写入时即填充；历史数据由 ChatConversationBackfillTask 分批回填（也可直接执行文末的回填语句）
+
+ALTER TABLE chat_messages
+    ADD COLUMN conversation_id VARCHAR(41) NULL AFTER to_user_id;
+
+-- 会话内历史/游标分页：单索引范围扫描，按id顺序返回
+ALTER TABLE chat_messages
+    ADD INDEX idx_conversation_id (conversation_id, id);
+
+-- 联系人列表：按发出/收到方向分别分组取每个会话的最大id（松散索引扫描）
+ALTER TABLE chat_messages
+    ADD INDEX idx_from_conversation (from_user_id, conversation_id, id),
+    ADD INDEX idx_to_conversation (to_user_id, conversation_id, id);
+
+-- 未读数/标记已读：覆盖索引
+ALTER TABLE chat_messages
+    ADD INDEX idx_to_unread (to_user_id, is_read, from_user_id);
+
+-- 小表可直接回填（大表请交给定时任务分批执行，避免长事务）
+-- UPDATE chat_messages
+-- SET conversation_id = CONCAT(LEAST(from_user_id, to_user_id), '_', GREATEST(from_user_id, to_user_id))
+-- WHERE conversation_id IS NULL;
+
+-- 迁移前后执行以下语句对比执行计划：
+-- 迁移前，OR条件通常为 type=ALL 或 index_merge，并伴随 Using filesort
+-- 迁移后，应为 type=ref/range，key=idx_conversation_id，无 filesort
+-- EXPLAIN SELECT * FROM chat_messages
+-- WHERE conversation_id = CONCAT(LEAST(1, 2), '_', GREATEST(1, 2))
+-- ORDER BY id DESC LIMIT 20;
+--
+-- 联系人子查询应为 key=idx_from_conversation / idx_to_conversation，Extra: Using index for group-by
+-- EXPLAIN SELECT conversation_id, MAX(id) FROM chat_messages WHERE from_user_id = 1 GROUP BY conversation_id;
+-- EXPLAIN SELECT conversation_id, MAX(id) FROM chat_messages WHERE to_user_id = 1 GROUP BY conversation_id;
+--
+-- 未读数应为 key=idx_to_unread，Extra: Using index
+-- EXPLAIN SELECT COUNT(*) FROM chat_messages WHERE to_user_id = 1 AND is_read = 0;
@@ -0,0 +1,15 @@
+-- 会话摘要表：联系人列表直接读取，发送消息/标记已读时增量维护
+-- 漂移由 ChatConversationSummaryTask 定期重建修复
+
+CREATE TABLE IF NOT EXISTS chat_conversation_summary (
+    user_id           BIGINT       NOT NULL COMMENT '用户ID',
+    contact_user_id   BIGINT       NOT NULL COMMENT '聊天对象ID',
+    last_message      VARCHAR(200) NULL COMMENT '最后一条消息内容（截断）',
+    last_message_type TINYINT      NULL COMMENT '最后一条消息类型 1文本 2图片 3语音',
+    last_message_time DATETIME     NOT NULL COMMENT '最后一条消息时间',
+    unread_count      INT          NOT NULL DEFAULT 0 COMMENT '对方发来的未读数',
+    updated_at        DATETIME     NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    PRIMARY KEY (user_id, contact_user_id),
+    INDEX idx_user_time (user_id, last_message_time),
+    INDEX idx_contact_user (contact_user_id)
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COMMENT ='聊天会话摘要';
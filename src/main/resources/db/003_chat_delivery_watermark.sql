@@ -0,0 +1,26 @@
+-- 离线消息同步：每个用户的每个设备记录已同步下发的最大消息ID
+-- 重连时按 to_user_id + id 顺序拉取水位之后的消息，分批推送
+-- device_id 为客户端连接时携带的设备标识；未携带的客户端共用空串，首次连接的设备从空串的水位开始
+
+CREATE TABLE IF NOT EXISTS chat_delivery_watermark (
+    user_id         BIGINT      NOT NULL COMMENT '用户ID',
+    device_id       VARCHAR(64) NOT NULL DEFAULT '' COMMENT '设备标识，空串为默认水位',
+    last_message_id BIGINT      NOT NULL DEFAULT 0 COMMENT '已下发的最大消息ID',
+    updated_at      DATETIME    NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    PRIMARY KEY (user_id, device_id)
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4 COMMENT ='消息下发水位';
+
+-- 同步查询：单索引范围扫描，按id顺序返回，无 filesort
+ALTER TABLE chat_messages
+    ADD INDEX idx_to_id (to_user_id, id);
+
+-- 上线前的消息客户端已通过历史接口获取，默认水位取每个收件人当前的最大消息ID，避免首次重连重放全部历史
+INSERT INTO chat_delivery_watermark (user_id, device_id, last_message_id)
+SELECT to_user_id, '', MAX(id)
+FROM chat_messages
+GROUP BY to_user_id
+ON DUPLICATE KEY UPDATE
+    last_message_id = GREATEST(last_message_id, VALUES(last_message_id));
+
+-- EXPLAIN SELECT * FROM chat_messages WHERE to_user_id = 1 AND id > 0 ORDER BY id LIMIT 200;
+-- 应为 type=range，key=idx_to_id
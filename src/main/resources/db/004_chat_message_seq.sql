@@ -0,0 +1,26 @@
+-- 聊天消息增加会话内序号 seq：同一会话内单调递增，由Redis在写入时分配
+-- 客户端按seq检测缺口，并按区间补拉缺失消息
+
+ALTER TABLE chat_messages
+    ADD COLUMN seq BIGINT NULL COMMENT '会话内序号' AFTER conversation_id;
+
+-- 按序号区间查询
+ALTER TABLE chat_messages
+    ADD INDEX idx_conversation_seq (conversation_id, seq);
+
+-- 历史消息按id顺序回填序号（需 MariaDB 10.2+ / MySQL 8.0+ 窗口函数）
+-- 必须在新版本上线前执行：Redis中的序号从数据库已有的最大seq继续分配
+UPDATE chat_messages cm
+    JOIN (
+        SELECT id,
+               ROW_NUMBER() OVER (
+                   PARTITION BY CONCAT(LEAST(from_user_id, to_user_id), '_', GREATEST(from_user_id, to_user_id))
+                   ORDER BY id) AS rn
+        FROM chat_messages
+    ) numbered ON numbered.id = cm.id
+SET cm.seq = numbered.rn
+WHERE cm.seq IS NULL;
+
+-- EXPLAIN SELECT * FROM chat_messages
+-- WHERE conversation_id = '1_2' AND seq BETWEEN 10 AND 50 ORDER BY seq;
+-- 应为 type=range，key=idx_conversation_seq
@@ -0,0 +1,12 @@
+-- 推荐流：候选查询按 status/gender/city 等值过滤、id 倒序游标分页
+-- 已滑过的用户不再用 NOT IN 反连接排除，改为应用侧每个用户一个布隆过滤器
+
+ALTER TABLE users
+    ADD INDEX idx_feed (status, gender, city, id);
+
+-- 构建布隆过滤器时按 target_user_id 顺序扫描用户的滑动记录（已有同列唯一索引时可跳过）
+ALTER TABLE user_matches
+    ADD INDEX idx_user_target (user_id, target_user_id);
+
+-- EXPLAIN SELECT id FROM users WHERE status = 1 AND gender = 2 AND city = '北京' AND id < 100000 ORDER BY id DESC LIMIT 200;
+-- 应为 type=range，key=idx_feed，无 filesort
@@ -0,0 +1,12 @@
+-- 滑动记录改为 INSERT ... ON DUPLICATE KEY UPDATE 单语句写入，需要 (user_id, target_user_id) 唯一
+-- 先清理历史重复记录（保留最新一条），再建唯一索引并替换 005 中的普通索引
+
+DELETE older FROM user_matches older
+    JOIN user_matches newer
+    ON newer.user_id = older.user_id
+        AND newer.target_user_id = older.target_user_id
+        AND newer.id > older.id;
+
+ALTER TABLE user_matches
+    ADD UNIQUE INDEX uk_user_target (user_id, target_user_id),
+    DROP INDEX idx_user_target;
@@ -0,0 +1,9 @@
+-- 照片缩略图：上传后由后台线程池生成 64/256/1080 三档尺寸，与原图同目录存放
+-- variant_status：0 生成中，1 已生成，2 生成失败（客户端回退原图）
+
+ALTER TABLE user_photos
+    ADD COLUMN variant_status TINYINT NOT NULL DEFAULT 0 AFTER status,
+    ADD INDEX idx_variant_status (variant_status, created_at);
+
+-- 历史照片标记为失败，列表直接使用原图
+UPDATE user_photos SET variant_status = 2;
@@ -0,0 +1,8 @@
+-- 相册：按 user_id 取照片并按 sort_order、created_at 排序，索引覆盖过滤与排序
+-- 设置头像、批量排序都只按 user_id 定位该用户的照片
+
+ALTER TABLE user_photos
+    ADD INDEX idx_user_sort (user_id, status, sort_order, created_at);
+
+-- EXPLAIN SELECT * FROM user_photos WHERE user_id = 1 AND status = 1 ORDER BY sort_order ASC, created_at DESC;
+-- 应为 type=ref，key=idx_user_sort
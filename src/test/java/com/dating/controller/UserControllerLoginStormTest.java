@@ -0,0 +1,193 @@
+package com.dating.controller;
+
+import com.dating.entity.User;
+import com.dating.entity.UserAuth;
+import com.dating.exception.GlobalExceptionHandler;
+import com.dating.mapper.UserAuthMapper;
+import com.dating.service.PasswordHashingService;
+import com.dating.service.RedisRateLimiter;
+import com.dating.service.UserAuthService;
+import com.dating.service.UserService;
+import com.dating.util.JwtUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.http.MediaType;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+/**
+ * 登录洪峰：BCrypt在有界线程池中计算，饱和时返回503，请求线程不被哈希计算占用，其他接口保持响应
+ * 数据库、限流与Token生成替换为mock，密码哈希使用真实的BCrypt
+ */
+class UserControllerLoginStormTest {
+
+    private static final int CLIENTS = 8;
+    private static final int LOGINS_PER_CLIENT = 5;
+    private static final int POOL_SIZE = 1;
+    private static final int QUEUE_CAPACITY = 4;
+
+    private PasswordHashingService passwordHashingService;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        PasswordEncoder passwordEncoder = new BCryptPasswordEncoder(10);
+        passwordHashingService = new PasswordHashingService();
+        ReflectionTestUtils.setField(passwordHashingService, "passwordEncoder", passwordEncoder);
+        ReflectionTestUtils.setField(passwordHashingService, "poolSize", POOL_SIZE);
+        ReflectionTestUtils.setField(passwordHashingService, "queueCapacity", QUEUE_CAPACITY);
+        passwordHashingService.init();
+
+        UserAuth userAuth = new UserAuth();
+        userAuth.setId(1L);
+        userAuth.setUserId(7L);
+        userAuth.setPassword(passwordEncoder.encode("secret123"));
+        UserAuthMapper userAuthMapper = Mockito.mock(UserAuthMapper.class);
+        when(userAuthMapper.findByPhoneAndLoginType(anyString(), anyInt())).thenReturn(userAuth);
+        RedisRateLimiter redisRateLimiter = Mockito.mock(RedisRateLimiter.class);
+        when(redisRateLimiter.tryAcquire(anyString(), any())).thenReturn(new RedisRateLimiter.Decision(true, 0, -1));
+
+        UserAuthService userAuthService = new UserAuthService();
+        ReflectionTestUtils.setField(userAuthService, "userAuthMapper", userAuthMapper);
+        ReflectionTestUtils.setField(userAuthService, "passwordHashingService", passwordHashingService);
+        ReflectionTestUtils.setField(userAuthService, "redisRateLimiter", redisRateLimiter);
+        userAuthService.init();
+
+        User user = new User();
+        user.setId(7L);
+        user.setPhone("13800000000");
+        user.setStatus(1);
+        UserService userService = Mockito.mock(UserService.class);
+        when(userService.findById(7L)).thenReturn(user);
+        JwtUtil jwtUtil = Mockito.mock(JwtUtil.class);
+        when(jwtUtil.generateToken(anyString())).thenReturn("token");
+
+        UserController userController = new UserController();
+        ReflectionTestUtils.setField(userController, "userService", userService);
+        ReflectionTestUtils.setField(userController, "userAuthService", userAuthService);
+        ReflectionTestUtils.setField(userController, "jwtUtil", jwtUtil);
+        ReflectionTestUtils.setField(userController, "passwordHashingService", passwordHashingService);
+        ReflectionTestUtils.setField(userController, "trustedProxyList", "");
+        userController.init();
+
+        MetricsController metricsController = new MetricsController();
+        ReflectionTestUtils.setField(metricsController, "passwordHashingService", passwordHashingService);
+
+        mockMvc = MockMvcBuilders.standaloneSetup(userController, metricsController)
+                .setControllerAdvice(new GlobalExceptionHandler())
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        passwordHashingService.shutdown();
+    }
+
+    @Test
+    void loginStormIsShedWith503WhileOtherEndpointsStayResponsive() throws Exception {
+        // 预热并测量无负载时其他接口的延迟
+        login();
+        List<Long> baseline = probe(200, null);
+
+        AtomicBoolean storming = new AtomicBoolean(true);
+        List<Long> requestThreadNanos = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> statuses = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS + 1);
+        List<Long> duringStorm;
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int c = 0; c < CLIENTS; c++) {
+                futures.add(clients.submit(() -> {
+                    for (int i = 0; i < LOGINS_PER_CLIENT; i++) {
+                        long start = System.nanoTime();
+                        MvcResult pending = startLogin();
+                        // 请求线程在提交哈希任务后即返回，这里只计请求线程占用时间
+                        requestThreadNanos.add(System.nanoTime() - start);
+                        statuses.add(mockMvc.perform(asyncDispatch(pending)).andReturn().getResponse().getStatus());
+                    }
+                    return null;
+                }));
+            }
+            Future<List<Long>> prober = clients.submit(() -> probe(Integer.MAX_VALUE, storming));
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+            storming.set(false);
+            duringStorm = prober.get(10, TimeUnit.SECONDS);
+        } finally {
+            clients.shutdownNow();
+        }
+
+        long ok = statuses.stream().filter(status -> status == 200).count();
+        long busy = statuses.stream().filter(status -> status == 503).count();
+        double avgHashMillis = ((Number) passwordHashingService.getStats().get("avgHashMillis")).doubleValue();
+        System.out.printf("登录洪峰：%d次登录，成功%d，503拒绝%d；单次哈希平均%.1fms；登录请求线程占用p99 %.2fms%n",
+                statuses.size(), ok, busy, avgHashMillis, p99Millis(requestThreadNanos));
+        System.out.printf("其他接口p99：空载%.2fms，洪峰期间%.2fms（%d次请求）%n",
+                p99Millis(baseline), p99Millis(duringStorm), duringStorm.size());
+
+        assertEquals(CLIENTS * LOGINS_PER_CLIENT, ok + busy, "只有成功或503两种结果");
+        assertTrue(busy > 0, "线程池与队列饱和时应返回503");
+        assertTrue(ok >= POOL_SIZE + QUEUE_CAPACITY, "已受理的登录都应完成");
+        assertEquals(busy, ((Number) passwordHashingService.getStats().get("rejectedCount")).longValue());
+        assertTrue(p99Millis(requestThreadNanos) < avgHashMillis, "请求线程不应等待哈希计算");
+        assertTrue(p99Millis(duringStorm) < 100, "洪峰期间其他接口仍应及时响应");
+    }
+
+    private void login() throws Exception {
+        mockMvc.perform(asyncDispatch(startLogin())).andReturn();
+    }
+
+    private MvcResult startLogin() throws Exception {
+        return mockMvc.perform(post("/api/user/login")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"phone\":\"13800000000\",\"password\":\"secret123\"}"))
+                .andReturn();
+    }
+
+    // 反复请求指标接口，记录每次耗时；running为null时固定请求count次
+    private List<Long> probe(int count, AtomicBoolean running) throws Exception {
+        List<Long> latencies = new ArrayList<>();
+        while (latencies.size() < count && (running == null || running.get())) {
+            long start = System.nanoTime();
+            int status = mockMvc.perform(get("/api/metrics/password-hashing")).andReturn().getResponse().getStatus();
+            latencies.add(System.nanoTime() - start);
+            assertEquals(200, status);
+            if (running != null) {
+                Thread.sleep(2);
+            }
+        }
+        return latencies;
+    }
+
+    private static double p99Millis(List<Long> nanos) {
+        List<Long> sorted = new ArrayList<>(nanos);
+        Collections.sort(sorted);
+        return sorted.get((int) Math.ceil(sorted.size() * 0.99) - 1) / 1_000_000.0;
+    }
+}
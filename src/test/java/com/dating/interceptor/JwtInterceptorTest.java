@@ -0,0 +1,128 @@
+package com.dating.interceptor;
+
+import com.dating.util.JwtUtil;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.Jwts;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * JWT校验：拦截器行为与旧/新校验路径的耗时对比
+ * 旧路径按原拦截器的调用方式，每个请求完整解析验签4次（validateToken、isTokenExpired、getUserIdFromToken、控制器再取一次）
+ */
+class JwtInterceptorTest {
+
+    private static final String SECRET = "Guvq8DqKB97ZBJetumfPDUvmoYxjw/Qr1j2PtvogOYc334LOr/AW3sw8ZWNq28HJwy3MsofB9/7zMLvjUwRjXg==";
+    private static final int WARM_UP = 1_000;
+    private static final int REQUESTS = 5_000;
+
+    private JwtUtil jwtUtil;
+    private JwtInterceptor interceptor;
+
+    @BeforeEach
+    void setUp() {
+        jwtUtil = newJwtUtil(86400);
+        interceptor = new JwtInterceptor();
+        ReflectionTestUtils.setField(interceptor, "jwtUtil", jwtUtil);
+    }
+
+    @Test
+    void verifiedUserIdIsStoredForControllers() throws Exception {
+        MockHttpServletRequest request = request(jwtUtil.generateToken("42"));
+        assertTrue(interceptor.preHandle(request, new MockHttpServletResponse(), null));
+        assertEquals("42", request.getAttribute(JwtUtil.USER_ID_ATTRIBUTE));
+        assertEquals(42L, jwtUtil.getUserIdFromRequest(request));
+    }
+
+    @Test
+    void expiredAndTamperedTokensAreRejected() throws Exception {
+        String expired = newJwtUtil(-1).generateToken("42");
+        MockHttpServletResponse expiredResponse = new MockHttpServletResponse();
+        assertFalse(interceptor.preHandle(request(expired), expiredResponse, null));
+        assertEquals(401, expiredResponse.getStatus());
+        assertThrows(ExpiredJwtException.class, () -> jwtUtil.verify(expired));
+
+        String token = jwtUtil.generateToken("42");
+        String tampered = token.substring(0, token.length() - 4) + "AAAA";
+        MockHttpServletResponse invalidResponse = new MockHttpServletResponse();
+        assertFalse(interceptor.preHandle(request(tampered), invalidResponse, null));
+        assertEquals(401, invalidResponse.getStatus());
+        assertThrows(JwtException.class, () -> jwtUtil.verify(tampered));
+    }
+
+    @Test
+    void cachedPathIsFasterThanRepeatedParsing() throws Exception {
+        String token = jwtUtil.generateToken("42");
+
+        for (int i = 0; i < WARM_UP; i++) {
+            oldPath(token);
+            newPath(token);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            oldPath(token);
+        }
+        double oldMicros = (System.nanoTime() - start) / 1000.0 / REQUESTS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            newPath(token);
+        }
+        double newMicros = (System.nanoTime() - start) / 1000.0 / REQUESTS;
+
+        System.out.printf("JWT校验耗时：旧路径 %.2f us/请求，新路径（缓存命中） %.2f us/请求%n", oldMicros, newMicros);
+        assertTrue(((Number) jwtUtil.getCacheStats().get("hitCount")).longValue() >= REQUESTS);
+        assertTrue(newMicros * 5 < oldMicros, "缓存命中路径应明显快于重复解析");
+    }
+
+    // 原拦截器与控制器的调用序列：每一步都完整解析并验签
+    private static long oldPath(String token) {
+        Claims claims = parse(token);
+        if (claims.getExpiration().before(new Date())) {
+            throw new IllegalStateException("expired");
+        }
+        parse(token);
+        Long userId = Long.valueOf(parse(token).getSubject());
+        return userId + Long.parseLong(parse(token).getSubject());
+    }
+
+    private long newPath(String token) throws Exception {
+        MockHttpServletRequest request = request(token);
+        if (!interceptor.preHandle(request, new MockHttpServletResponse(), null)) {
+            throw new IllegalStateException("rejected");
+        }
+        return jwtUtil.getUserIdFromRequest(request);
+    }
+
+    private static Claims parse(String token) {
+        return Jwts.parser().setSigningKey(SECRET).parseClaimsJws(token).getBody();
+    }
+
+    private static MockHttpServletRequest request(String token) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/user/profile");
+        request.addHeader("Authorization", "Bearer " + token);
+        return request;
+    }
+
+    private static JwtUtil newJwtUtil(int expireSeconds) {
+        JwtUtil util = new JwtUtil();
+        ReflectionTestUtils.setField(util, "secret", SECRET);
+        ReflectionTestUtils.setField(util, "expire", expireSeconds);
+        ReflectionTestUtils.setField(util, "cacheMaximumSize", 1000L);
+        util.init();
+        return util;
+    }
+}
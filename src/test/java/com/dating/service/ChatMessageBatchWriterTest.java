@@ -0,0 +1,248 @@
+package com.dating.service;
+
+import com.dating.config.JacksonConfig;
+import com.dating.entity.ChatMessage;
+import com.dating.mapper.ChatMessageMapper;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
+
+/**
+ * 在嵌入式Redis上验证消息批量落库：与逐条写入的吞吐对比、写入失败的消息保留与补写
+ * 数据库替换为按语句计费的模拟Mapper：每条语句一次往返，每行额外写入开销
+ */
+class ChatMessageBatchWriterTest {
+
+    private static final long ROUND_TRIP_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long PER_ROW_NANOS = TimeUnit.MICROSECONDS.toNanos(20);
+    private static final int MESSAGES = 1000;
+    private static final int WARM_UP = 1000;
+
+    private static RedisServer redisServer;
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate stringRedisTemplate;
+
+    private ChatMessageMapper chatMessageMapper;
+    private ConversationSummaryService conversationSummaryService;
+    private ChatMessageJournal chatMessageJournal;
+    private ChatMessageBatchWriter writer;
+
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final AtomicInteger insertedRows = new AtomicInteger();
+    private final AtomicBoolean databaseDown = new AtomicBoolean();
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        int port = freePort();
+        redisServer = new RedisServer(port);
+        redisServer.start();
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("localhost", port));
+        connectionFactory.afterPropertiesSet();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @BeforeEach
+    void setUp() {
+        stringRedisTemplate.getConnectionFactory().getConnection().flushAll();
+        chatMessageMapper = Mockito.mock(ChatMessageMapper.class);
+        doAnswer(invocation -> execute(1)).when(chatMessageMapper).insert(any());
+        doAnswer(invocation -> execute(((List<?>) invocation.getArgument(0)).size()))
+                .when(chatMessageMapper).batchInsert(anyList());
+        conversationSummaryService = Mockito.mock(ConversationSummaryService.class);
+
+        chatMessageJournal = new ChatMessageJournal();
+        ReflectionTestUtils.setField(chatMessageJournal, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(chatMessageJournal, "objectMapper", new JacksonConfig().objectMapper());
+
+        writer = new ChatMessageBatchWriter();
+        ReflectionTestUtils.setField(writer, "chatMessageMapper", chatMessageMapper);
+        ReflectionTestUtils.setField(writer, "conversationSummaryService", conversationSummaryService);
+        ReflectionTestUtils.setField(writer, "unreadCounterService", Mockito.mock(UnreadCounterService.class));
+        ReflectionTestUtils.setField(writer, "chatMessageJournal", chatMessageJournal);
+        ReflectionTestUtils.setField(writer, "batchSize", 200);
+        ReflectionTestUtils.setField(writer, "flushIntervalMs", 20L);
+        ReflectionTestUtils.setField(writer, "queueCapacity", 100_000);
+        ReflectionTestUtils.setField(writer, "enqueueTimeoutMs", 1000L);
+        ReflectionTestUtils.setField(writer, "recoveryAgeMs", 300_000L);
+        writer.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        writer.shutdown();
+    }
+
+    @Test
+    void batchWriteOutperformsPerRowInserts() throws Exception {
+        // 预热Redis连接、JSON序列化与写线程，不计入吞吐
+        for (int i = 0; i < WARM_UP; i++) {
+            writer.enqueue(message(LocalDateTime.now()));
+        }
+        awaitInsertedRows(WARM_UP);
+        insertedRows.set(0);
+
+        // 逐条写入：原先每条消息一条INSERT
+        long start = System.nanoTime();
+        for (int i = 0; i < MESSAGES; i++) {
+            chatMessageMapper.insert(message(LocalDateTime.now()));
+        }
+        double perRowRate = MESSAGES / seconds(System.nanoTime() - start);
+        insertedRows.set(0);
+
+        // 批量写入：多个发送线程入队，写线程合并落库
+        ExecutorService senders = Executors.newFixedThreadPool(4);
+        try {
+            start = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(senders.submit(() -> {
+                    for (int i = 0; i < MESSAGES / 4; i++) {
+                        writer.enqueue(message(LocalDateTime.now()));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+            awaitInsertedRows(MESSAGES);
+        } finally {
+            senders.shutdownNow();
+        }
+        double batchRate = MESSAGES / seconds(System.nanoTime() - start);
+
+        System.out.printf("消息落库吞吐：逐条 %.0f msgs/s，批量 %.0f msgs/s%n", perRowRate, batchRate);
+        assertEquals(MESSAGES, insertedRows.get());
+        // 批量路径每条消息仍有一次待落库日志写入，倍数留出余量避免受机器负载影响
+        assertTrue(batchRate > perRowRate * 3, "批量写入吞吐应明显高于逐条写入");
+        assertEquals(0L, chatMessageJournal.size(), "落库后待落库消息日志应清空");
+    }
+
+    @Test
+    void failedMessagesStayInJournalUntilRecovered() throws InterruptedException {
+        databaseDown.set(true);
+        for (int i = 0; i < 3; i++) {
+            writer.enqueue(message(LocalDateTime.now()));
+        }
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (((Number) writer.getStats().get("failed")).longValue() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(3L, writer.getStats().get("failed"));
+        assertEquals(3L, chatMessageJournal.size(), "写入失败的消息不能丢弃");
+
+        databaseDown.set(false);
+        ReflectionTestUtils.setField(writer, "recoveryAgeMs", 0L);
+        Thread.sleep(1100);
+        assertEquals(3, writer.recoverStale());
+        assertEquals(0L, chatMessageJournal.size());
+        assertEquals(3, insertedRows.get());
+    }
+
+    @Test
+    void messagesLeftByCrashedNodeAreRecoveredOnce() {
+        // 宕机节点留下的两条消息，其中一条在宕机前已经落库
+        ChatMessage pending = message(LocalDateTime.now().minusMinutes(10));
+        ChatMessage alreadySaved = message(LocalDateTime.now().minusMinutes(10));
+        chatMessageJournal.record(pending);
+        chatMessageJournal.record(alreadySaved);
+        // 仍在正常写入流程中的新消息不补写
+        chatMessageJournal.record(message(LocalDateTime.now()));
+        doThrow(new DuplicateKeyException("duplicate"))
+                .when(chatMessageMapper).insert(Mockito.argThat(m -> alreadySaved.getId().equals(m.getId())));
+
+        assertEquals(2, writer.recoverStale());
+
+        assertEquals(1L, chatMessageJournal.size());
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<ChatMessage>> saved = ArgumentCaptor.forClass(List.class);
+        verify(conversationSummaryService).onMessagesSaved(saved.capture());
+        assertEquals(Collections.singletonList(pending.getId()), ids(saved.getValue()));
+    }
+
+    private void awaitInsertedRows(int rows) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (insertedRows.get() < rows && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    private int execute(int rows) {
+        if (databaseDown.get()) {
+            throw new IllegalStateException("database unavailable");
+        }
+        LockSupport.parkNanos(ROUND_TRIP_NANOS + rows * PER_ROW_NANOS);
+        insertedRows.addAndGet(rows);
+        return rows;
+    }
+
+    private ChatMessage message(LocalDateTime createdAt) {
+        ChatMessage message = new ChatMessage();
+        message.setId(nextId.getAndIncrement());
+        message.setFromUserId(1L);
+        message.setToUserId(2L);
+        message.setConversationId("1_2");
+        message.setSeq(message.getId());
+        message.setMessageType(1);
+        message.setContent("hi");
+        message.setIsRead(0);
+        message.setCreatedAt(createdAt);
+        return message;
+    }
+
+    private static List<Long> ids(List<ChatMessage> messages) {
+        List<Long> ids = new ArrayList<>();
+        for (ChatMessage message : messages) {
+            ids.add(message.getId());
+        }
+        return ids;
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1_000_000_000.0;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.dating.service;
+
+import com.dating.entity.ChatMessage;
+import com.dating.mapper.ChatMessageMapper;
+import com.dating.util.SnowflakeIdGenerator;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+/**
+ * 在嵌入式Redis上验证消息ID与会话序号的联合分配
+ */
+class ConversationSequenceServiceTest {
+
+    private static RedisServer redisServer;
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate stringRedisTemplate;
+
+    private ChatMessageMapper chatMessageMapper;
+    private ChatMessageBatchWriter chatMessageBatchWriter;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        int port = freePort();
+        redisServer = new RedisServer(port);
+        redisServer.start();
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("localhost", port));
+        connectionFactory.afterPropertiesSet();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @BeforeEach
+    void setUp() {
+        stringRedisTemplate.getConnectionFactory().getConnection().flushAll();
+        chatMessageMapper = Mockito.mock(ChatMessageMapper.class);
+        chatMessageBatchWriter = Mockito.mock(ChatMessageBatchWriter.class);
+    }
+
+    @Test
+    void seqOrderMatchesIdOrderAcrossNodes() throws Exception {
+        // 两个节点（不同节点号）在同一会话中并发发送
+        ConversationSequenceService nodeA = newService(stringRedisTemplate, new SnowflakeIdGenerator(1));
+        ConversationSequenceService nodeB = newService(stringRedisTemplate, new SnowflakeIdGenerator(2));
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<ChatMessage>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < 2000; i++) {
+                ConversationSequenceService service = i % 2 == 0 ? nodeA : nodeB;
+                futures.add(pool.submit(() -> {
+                    ChatMessage message = message(1L, 2L);
+                    service.assign(message);
+                    return message;
+                }));
+            }
+            List<ChatMessage> messages = new ArrayList<>();
+            for (Future<ChatMessage> future : futures) {
+                messages.add(future.get(30, TimeUnit.SECONDS));
+            }
+
+            messages.sort((a, b) -> Long.compare(a.getSeq(), b.getSeq()));
+            for (int i = 0; i < messages.size(); i++) {
+                assertEquals(i + 1, messages.get(i).getSeq(), "序号连续且不重复");
+                if (i > 0) {
+                    assertTrue(messages.get(i).getId() > messages.get(i - 1).getId(), "seq顺序与ID顺序一致");
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void lostCounterIsSeededFromDatabaseAndPendingMessages() {
+        ConversationSequenceService service = newService(stringRedisTemplate, new SnowflakeIdGenerator(1));
+        when(chatMessageMapper.getMaxSeq("1_2")).thenReturn(10L);
+        when(chatMessageBatchWriter.getMaxPendingSeq("1_2")).thenReturn(15L);
+
+        ChatMessage message = message(2L, 1L);
+        service.assign(message);
+
+        assertEquals("1_2", message.getConversationId());
+        assertEquals(16L, message.getSeq());
+    }
+
+    @Test
+    void sendIsRejectedWhenRedisIsUnavailable() {
+        LettuceConnectionFactory unreachable = new LettuceConnectionFactory(
+                new RedisStandaloneConfiguration("localhost", 1));
+        unreachable.afterPropertiesSet();
+        try {
+            ConversationSequenceService service = newService(new StringRedisTemplate(unreachable),
+                    new SnowflakeIdGenerator(1));
+            ChatMessage message = message(1L, 2L);
+            assertThrows(IllegalStateException.class, () -> service.assign(message));
+        } finally {
+            unreachable.destroy();
+        }
+    }
+
+    private ConversationSequenceService newService(StringRedisTemplate redis, SnowflakeIdGenerator generator) {
+        ConversationSequenceService service = new ConversationSequenceService();
+        ReflectionTestUtils.setField(service, "stringRedisTemplate", redis);
+        ReflectionTestUtils.setField(service, "chatMessageMapper", chatMessageMapper);
+        ReflectionTestUtils.setField(service, "chatMessageBatchWriter", chatMessageBatchWriter);
+        ReflectionTestUtils.setField(service, "snowflakeIdGenerator", generator);
+        return service;
+    }
+
+    private static ChatMessage message(Long fromUserId, Long toUserId) {
+        ChatMessage message = new ChatMessage();
+        message.setFromUserId(fromUserId);
+        message.setToUserId(toUserId);
+        message.setContent("hi");
+        return message;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.dating.service;
+
+import com.dating.dto.SwipeRequest;
+import com.dating.entity.UserMatch;
+import com.dating.mapper.UserMatchMapper;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.mybatis.spring.SqlSessionFactoryBean;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.DeadlockLoserDataAccessException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 滑动写入：每次滑动的语句数、加锁冲突重试，以及真实数据库上并发互相喜欢时的状态正确性与吞吐
+ * 并发用例需要MariaDB（本地无嵌入式实现），指定专用测试库后运行：
+ * mvn test -Dtest=MatchServiceTest -Dtest.mariadb.url=jdbc:mariadb://localhost:3306/dating_test -Dtest.mariadb.username=root -Dtest.mariadb.password=xxx
+ */
+class MatchServiceTest {
+
+    // 并发用例只操作该ID之后的用户，执行前后清理
+    private static final long BASE_USER_ID = 900_000_000L;
+    private static final int PAIRS = 500;
+    private static final int THREADS = 16;
+
+    private UserMatchMapper userMatchMapper;
+    private MatchService matchService;
+
+    @BeforeEach
+    void setUp() {
+        userMatchMapper = Mockito.mock(UserMatchMapper.class);
+        matchService = newMatchService(userMatchMapper);
+    }
+
+    @Test
+    void singleSwipeIssuesTwoStatements() {
+        when(userMatchMapper.refreshMutualStatus(1L, 2L)).thenReturn(2);
+
+        matchService.userMatch(1L, 2L, 1);
+
+        verify(userMatchMapper).upsert(any());
+        verify(userMatchMapper).refreshMutualStatus(1L, 2L);
+        Mockito.verifyNoMoreInteractions(userMatchMapper);
+        Map<String, Object> stats = matchService.getSwipeStats();
+        assertEquals(1L, stats.get("swipeCount"));
+        assertEquals(2.0, stats.get("statementsPerSwipe"));
+    }
+
+    @Test
+    void batchOfSwipesIssuesTwoStatementsAndKeepsLatestAction() {
+        List<SwipeRequest> swipes = new ArrayList<>();
+        for (long target = 2; target <= 100; target++) {
+            swipes.add(swipe(target, 1));
+        }
+        // 同一目标再次滑动以最后一次为准
+        swipes.add(swipe(2L, 2));
+
+        assertEquals(99, matchService.batchUserMatch(1L, swipes));
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<UserMatch>> written = ArgumentCaptor.forClass(List.class);
+        verify(userMatchMapper).batchUpsert(eq(1L), written.capture());
+        verify(userMatchMapper).refreshMutualStatusBatch(eq(1L), any());
+        Mockito.verifyNoMoreInteractions(userMatchMapper);
+        assertEquals(99, written.getValue().size());
+        assertEquals(Integer.valueOf(2), written.getValue().get(written.getValue().size() - 1).getAction());
+        Map<String, Object> stats = matchService.getSwipeStats();
+        assertEquals(99L, stats.get("swipeCount"));
+        assertEquals(2L, stats.get("statementCount"));
+    }
+
+    @Test
+    void lockConflictWhileRefreshingIsRetried() {
+        when(userMatchMapper.refreshMutualStatus(1L, 2L))
+                .thenThrow(new DeadlockLoserDataAccessException("deadlock", null))
+                .thenReturn(2);
+        matchService.userMatch(1L, 2L, 1);
+        verify(userMatchMapper, times(2)).refreshMutualStatus(1L, 2L);
+
+        when(userMatchMapper.refreshMutualStatus(3L, 4L)).thenThrow(new CannotAcquireLockException("lock wait timeout"));
+        assertThrows(CannotAcquireLockException.class, () -> matchService.userMatch(3L, 4L, 1));
+        verify(userMatchMapper, times(3)).refreshMutualStatus(3L, 4L);
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "test.mariadb.url", matches = ".+")
+    void concurrentMutualLikesOnMariaDbAlwaysEndMutual() throws Exception {
+        try (HikariDataSource dataSource = new HikariDataSource()) {
+            dataSource.setJdbcUrl(System.getProperty("test.mariadb.url"));
+            dataSource.setUsername(System.getProperty("test.mariadb.username", "root"));
+            dataSource.setPassword(System.getProperty("test.mariadb.password", ""));
+            dataSource.setMaximumPoolSize(THREADS);
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+            createTable(jdbcTemplate);
+            cleanUp(jdbcTemplate);
+
+            SqlSessionFactoryBean factoryBean = new SqlSessionFactoryBean();
+            factoryBean.setDataSource(dataSource);
+            factoryBean.setMapperLocations(new ClassPathResource("mapper/UserMatchMapper.xml"));
+            MatchService service = newMatchService(
+                    new SqlSessionTemplate(factoryBean.getObject()).getMapper(UserMatchMapper.class));
+
+            try {
+                // 第一轮：每对用户同时互相喜欢
+                double swipesPerSecond = runConcurrently(service, pair -> 1, pair -> 1);
+                assertEquals(2L * PAIRS, jdbcTemplate.queryForObject(
+                        "SELECT COUNT(*) FROM user_matches WHERE user_id >= ? AND is_mutual = 1", Long.class, BASE_USER_ID),
+                        "同时互相喜欢的两条记录都应标记为互相喜欢");
+
+                // 第二轮：一方取消喜欢的同时另一方重新喜欢，互相喜欢状态必须与双方最终动作一致
+                runConcurrently(service, pair -> pair % 2 == 0 ? 2 : 1, pair -> 1);
+                assertEquals(0L, jdbcTemplate.queryForObject(
+                        "SELECT COUNT(*) FROM user_matches a JOIN user_matches b"
+                                + " ON b.user_id = a.target_user_id AND b.target_user_id = a.user_id"
+                                + " WHERE a.user_id >= ? AND a.is_mutual <> IF(a.action = 1 AND b.action = 1, 1, 0)",
+                        Long.class, BASE_USER_ID), "互相喜欢状态应与双方最终动作一致");
+                assertEquals((long) PAIRS, jdbcTemplate.queryForObject(
+                        "SELECT COUNT(*) FROM user_matches WHERE user_id >= ? AND is_mutual = 1", Long.class, BASE_USER_ID));
+
+                System.out.printf("并发互相喜欢：%d对用户，%d线程，%.0f swipes/s，每次滑动%.1f条语句%n",
+                        PAIRS, THREADS, swipesPerSecond, service.getSwipeStats().get("statementsPerSwipe"));
+                assertEquals(2.0, service.getSwipeStats().get("statementsPerSwipe"));
+            } finally {
+                cleanUp(jdbcTemplate);
+            }
+        }
+    }
+
+    // 每对用户的两次滑动同时放行，任何异常（包括重试后仍未解决的死锁）都会使用例失败
+    private double runConcurrently(MatchService service, PairAction first, PairAction second) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            List<Integer> order = new ArrayList<>();
+            for (int pair = 0; pair < PAIRS; pair++) {
+                order.add(pair);
+            }
+            Collections.shuffle(order, ThreadLocalRandom.current());
+            long start = System.nanoTime();
+            for (int pair : order) {
+                long userId = BASE_USER_ID + pair * 2L;
+                long targetUserId = userId + 1;
+                CountDownLatch bothReady = new CountDownLatch(2);
+                futures.add(executor.submit(() -> swipe(service, bothReady, userId, targetUserId, first.of(pair))));
+                futures.add(executor.submit(() -> swipe(service, bothReady, targetUserId, userId, second.of(pair))));
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+            return 2.0 * PAIRS / ((System.nanoTime() - start) / 1_000_000_000.0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Void swipe(MatchService service, CountDownLatch bothReady, long userId, long targetUserId, int action)
+            throws InterruptedException {
+        bothReady.countDown();
+        bothReady.await(10, TimeUnit.SECONDS);
+        service.userMatch(userId, targetUserId, action);
+        return null;
+    }
+
+    private interface PairAction {
+        int of(int pair);
+    }
+
+    // 结构与线上表一致，含 006 迁移添加的唯一索引
+    private static void createTable(JdbcTemplate jdbcTemplate) {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS user_matches ("
+                + " id BIGINT AUTO_INCREMENT PRIMARY KEY,"
+                + " user_id BIGINT NOT NULL,"
+                + " target_user_id BIGINT NOT NULL,"
+                + " action TINYINT NOT NULL,"
+                + " is_mutual TINYINT NOT NULL DEFAULT 0,"
+                + " created_at DATETIME DEFAULT CURRENT_TIMESTAMP,"
+                + " UNIQUE INDEX uk_user_target (user_id, target_user_id)"
+                + ") ENGINE = InnoDB");
+    }
+
+    private static void cleanUp(JdbcTemplate jdbcTemplate) {
+        jdbcTemplate.update("DELETE FROM user_matches WHERE user_id >= ?", BASE_USER_ID);
+    }
+
+    private static MatchService newMatchService(UserMatchMapper mapper) {
+        DataIntegrityService dataIntegrityService = Mockito.mock(DataIntegrityService.class);
+        when(dataIntegrityService.validateUser(anyLong())).thenReturn(true);
+        when(dataIntegrityService.validateTwoDifferentUsers(anyLong(), anyLong()))
+                .thenAnswer(invocation -> !invocation.getArgument(0).equals(invocation.getArgument(1)));
+
+        MatchService service = new MatchService();
+        ReflectionTestUtils.setField(service, "userMatchMapper", mapper);
+        ReflectionTestUtils.setField(service, "dataIntegrityService", dataIntegrityService);
+        ReflectionTestUtils.setField(service, "discoveryFeedService", Mockito.mock(DiscoveryFeedService.class));
+        ReflectionTestUtils.setField(service, "stringRedisTemplate", Mockito.mock(StringRedisTemplate.class));
+        ReflectionTestUtils.setField(service, "redisMessageListenerContainer", Mockito.mock(RedisMessageListenerContainer.class));
+        ReflectionTestUtils.setField(service, "mutualMatchMaximumSize", 1000L);
+        ReflectionTestUtils.setField(service, "mutualMatchExpireSeconds", 600L);
+        service.init();
+        return service;
+    }
+
+    private static SwipeRequest swipe(long targetUserId, int action) {
+        SwipeRequest swipe = new SwipeRequest();
+        swipe.setTargetUserId(targetUserId);
+        swipe.setAction(action);
+        return swipe;
+    }
+}
@@ -0,0 +1,128 @@
+package com.dating.service;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 在嵌入式Redis上验证三种限流策略的Lua脚本
+ */
+class RedisRateLimiterTest {
+
+    private static RedisServer redisServer;
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate stringRedisTemplate;
+
+    private RedisRateLimiter rateLimiter;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        int port = freePort();
+        redisServer = new RedisServer(port);
+        redisServer.start();
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("localhost", port));
+        connectionFactory.afterPropertiesSet();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @BeforeEach
+    void setUp() {
+        stringRedisTemplate.getConnectionFactory().getConnection().flushAll();
+        rateLimiter = new RedisRateLimiter();
+        ReflectionTestUtils.setField(rateLimiter, "stringRedisTemplate", stringRedisTemplate);
+    }
+
+    @Test
+    void fixedWindowAllowsLimitThenRejectsUntilWindowEnds() {
+        RedisRateLimiter.Policy policy = RedisRateLimiter.Policy.fixedWindow(3, 10, TimeUnit.SECONDS);
+        for (int remaining = 2; remaining >= 0; remaining--) {
+            RedisRateLimiter.Decision decision = rateLimiter.tryAcquire("test:fixed", policy);
+            assertTrue(decision.isAllowed());
+            assertEquals(remaining, decision.getRemaining());
+        }
+
+        RedisRateLimiter.Decision rejected = rateLimiter.tryAcquire("test:fixed", policy);
+        assertFalse(rejected.isAllowed());
+        assertTrue(rejected.getRetryAfterMillis() > 0 && rejected.getRetryAfterMillis() <= 10_000);
+        // 被拒绝的请求不延长窗口
+        Long ttl = stringRedisTemplate.getExpire("rate:test:fixed", TimeUnit.MILLISECONDS);
+        assertTrue(ttl != null && ttl > 0 && ttl <= 10_000);
+    }
+
+    @Test
+    void fixedIntervalAllowsOneRequestPerInterval() throws InterruptedException {
+        RedisRateLimiter.Policy policy = RedisRateLimiter.Policy.fixedInterval(300, TimeUnit.MILLISECONDS);
+        assertTrue(rateLimiter.tryAcquire("test:interval", policy).isAllowed());
+        RedisRateLimiter.Decision rejected = rateLimiter.tryAcquire("test:interval", policy);
+        assertFalse(rejected.isAllowed());
+
+        Thread.sleep(rejected.getRetryAfterMillis() + 50);
+        assertTrue(rateLimiter.tryAcquire("test:interval", policy).isAllowed());
+    }
+
+    @Test
+    void slidingWindowReleasesPermitsAsOldRequestsLeaveTheWindow() throws InterruptedException {
+        RedisRateLimiter.Policy policy = RedisRateLimiter.Policy.slidingWindow(5, 500, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(rateLimiter.tryAcquire("test:sliding", policy).isAllowed());
+        }
+        RedisRateLimiter.Decision rejected = rateLimiter.tryAcquire("test:sliding", policy);
+        assertFalse(rejected.isAllowed());
+        assertTrue(rejected.getRetryAfterMillis() > 0 && rejected.getRetryAfterMillis() <= 500);
+
+        Thread.sleep(rejected.getRetryAfterMillis() + 50);
+        assertTrue(rateLimiter.tryAcquire("test:sliding", policy).isAllowed());
+    }
+
+    @Test
+    void tokenBucketAllowsBurstThenRefillsAtRate() throws InterruptedException {
+        RedisRateLimiter.Policy policy = RedisRateLimiter.Policy.tokenBucket(5, 10);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(rateLimiter.tryAcquire("test:bucket", policy).isAllowed());
+        }
+        RedisRateLimiter.Decision rejected = rateLimiter.tryAcquire("test:bucket", policy);
+        assertFalse(rejected.isAllowed());
+        // 每秒补充10个，下一个令牌最多等待100ms
+        assertTrue(rejected.getRetryAfterMillis() > 0 && rejected.getRetryAfterMillis() <= 100);
+
+        Thread.sleep(150);
+        assertTrue(rateLimiter.tryAcquire("test:bucket", policy).isAllowed());
+    }
+
+    @Test
+    void keysAreLimitedIndependently() {
+        RedisRateLimiter.Policy policy = RedisRateLimiter.Policy.fixedWindow(1, 10, TimeUnit.SECONDS);
+        assertTrue(rateLimiter.tryAcquire("test:a", policy).isAllowed());
+        assertFalse(rateLimiter.tryAcquire("test:a", policy).isAllowed());
+        assertTrue(rateLimiter.tryAcquire("test:b", policy).isAllowed());
+
+        assertEquals(2L, rateLimiter.getStats().get("allowed"));
+        assertEquals(1L, rateLimiter.getStats().get("rejected"));
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.dating.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SnowflakeIdGeneratorTest {
+
+    private static final int THREADS = 8;
+    private static final int IDS_PER_THREAD = 200_000;
+
+    @Test
+    void concurrentIdsAreUniqueAndIncreasingPerThread() throws Exception {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(7);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<long[]>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    long[] ids = new long[IDS_PER_THREAD];
+                    for (int i = 0; i < ids.length; i++) {
+                        ids[i] = generator.nextId();
+                    }
+                    return ids;
+                }));
+            }
+            start.countDown();
+
+            long[] all = new long[THREADS * IDS_PER_THREAD];
+            int offset = 0;
+            for (Future<long[]> future : futures) {
+                long[] ids = future.get(60, TimeUnit.SECONDS);
+                for (int i = 1; i < ids.length; i++) {
+                    assertTrue(ids[i] > ids[i - 1], "单线程内ID必须严格递增");
+                }
+                System.arraycopy(ids, 0, all, offset, ids.length);
+                offset += ids.length;
+            }
+
+            Arrays.sort(all);
+            for (int i = 1; i < all.length; i++) {
+                assertTrue(all[i] != all[i - 1], "ID重复：" + all[i]);
+            }
+            for (long id : all) {
+                assertEquals(7, (id >>> 12) & SnowflakeIdGenerator.MAX_WORKER_ID);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void sequenceOverflowCarriesIntoNextMillisecond() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1);
+        long previous = generator.nextId();
+        // 远超单毫秒4096个序列号
+        for (int i = 0; i < 100_000; i++) {
+            long id = generator.nextId();
+            assertTrue(id > previous);
+            previous = id;
+        }
+    }
+
+    @Test
+    void reassignKeepsIdsIncreasing() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(900);
+        long before = generator.nextId();
+        generator.reassign(3, Long.MAX_VALUE);
+        long after = generator.nextId();
+        assertTrue(after > before);
+        assertEquals(3, generator.getWorkerId());
+        assertEquals(3, (after >>> 12) & SnowflakeIdGenerator.MAX_WORKER_ID);
+    }
+
+    @Test
+    void expiredLeaseStopsIssuingIds() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(5);
+        generator.extendLease(System.currentTimeMillis() - 1);
+        assertThrows(IllegalStateException.class, generator::nextId);
+
+        generator.extendLease(System.currentTimeMillis() + 60_000);
+        assertTrue(generator.nextId() > 0);
+    }
+
+    @Test
+    void idsNeverCarryTimestampBeyondLease() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(5);
+        long validUntil = System.currentTimeMillis() + 20;
+        generator.extendLease(validUntil);
+        // 序列号进位可能让时间戳超前于当前时钟，超出有效期的ID也必须拒绝
+        try {
+            for (;;) {
+                long id = generator.nextId();
+                assertTrue(SnowflakeIdGenerator.timestampOf(id) < validUntil);
+            }
+        } catch (IllegalStateException expected) {
+            // 租约到期
+        }
+    }
+
+    @Test
+    void minIdAtBoundsIdsGeneratedBefore() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(SnowflakeIdGenerator.MAX_WORKER_ID);
+        long id = generator.nextId();
+        assertTrue(id < SnowflakeIdGenerator.minIdAt(SnowflakeIdGenerator.timestampOf(id) + 1));
+        assertTrue(id >= SnowflakeIdGenerator.minIdAt(SnowflakeIdGenerator.timestampOf(id)));
+    }
+}
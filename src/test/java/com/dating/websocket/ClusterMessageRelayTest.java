@@ -0,0 +1,208 @@
+package com.dating.websocket;
+
+import com.dating.config.RedisConfig;
+import com.dating.service.OfflineSyncService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+/**
+ * 两个进程内应用上下文共用一个嵌入式Redis，模拟两个节点之间的路由与转发
+ */
+class ClusterMessageRelayTest {
+
+    private static RedisServer redisServer;
+    private static int redisPort;
+
+    private AnnotationConfigApplicationContext nodeA;
+    private AnnotationConfigApplicationContext nodeB;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        redisPort = freePort();
+        redisServer = new RedisServer(redisPort);
+        redisServer.start();
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        redisServer.stop();
+    }
+
+    @BeforeEach
+    void startNodes() throws InterruptedException {
+        nodeA = startNode("node-a");
+        nodeB = startNode("node-b");
+        nodeA.getBean(StringRedisTemplate.class).getConnectionFactory().getConnection().flushAll();
+        awaitSubscribed(nodeA, "ws:relay:node-a");
+        awaitSubscribed(nodeA, "ws:relay:node-b");
+    }
+
+    @AfterEach
+    void stopNodes() {
+        nodeA.close();
+        nodeB.close();
+    }
+
+    @Test
+    void messageReachesUserConnectedToOtherNode() {
+        nodeB.getBean(UserRouteDirectory.class).register(42L);
+
+        nodeA.getBean(ClusterMessageRelay.class).route(42L, 1001L, "hello");
+
+        OfflineSyncService syncA = nodeA.getBean(OfflineSyncService.class);
+        OfflineSyncService syncB = nodeB.getBean(OfflineSyncService.class);
+        verify(syncA).deliverLive(42L, 1001L, "hello");
+        verify(syncB, timeout(5000)).deliverLive(42L, 1001L, "hello");
+    }
+
+    @Test
+    void messagesForManyUsersAreBatchedPerNode() {
+        UserRouteDirectory directoryB = nodeB.getBean(UserRouteDirectory.class);
+        directoryB.refresh(Arrays.asList(1L, 2L, 3L));
+
+        ClusterMessageRelay relayA = nodeA.getBean(ClusterMessageRelay.class);
+        for (long userId = 1; userId <= 3; userId++) {
+            relayA.route(userId, userId * 10, "m" + userId);
+        }
+
+        OfflineSyncService syncB = nodeB.getBean(OfflineSyncService.class);
+        for (long userId = 1; userId <= 3; userId++) {
+            verify(syncB, timeout(5000)).deliverLive(userId, userId * 10, "m" + userId);
+        }
+    }
+
+    @Test
+    void userWithoutRouteIsNotRelayed() throws InterruptedException {
+        nodeA.getBean(ClusterMessageRelay.class).route(7L, 1L, "nobody");
+
+        Thread.sleep(300);
+        verify(nodeB.getBean(OfflineSyncService.class), never()).deliverLive(anyLong(), anyLong(), anyString());
+    }
+
+    @Test
+    void crashedNodeRouteExpiresEvenWhileOtherNodesRenew() {
+        StringRedisTemplate redis = nodeA.getBean(StringRedisTemplate.class);
+        String key = UserRouteDirectory.routeKey(42L);
+        // 宕机节点留下的成员：过期时间已过，key本身仍由node-b续期
+        redis.opsForZSet().add(key, "node-dead", System.currentTimeMillis() - 1000);
+        nodeB.getBean(UserRouteDirectory.class).register(42L);
+
+        Map<Long, Set<String>> routes = nodeA.getBean(UserRouteDirectory.class).lookup(Collections.singletonList(42L));
+
+        assertEquals(Collections.singleton("node-b"), routes.get(42L));
+        assertNull(redis.opsForZSet().score(key, "node-dead"));
+        assertTrue(redis.getExpire(key) > 0);
+    }
+
+    @Test
+    void unregisterRemovesOnlyThisNode() {
+        nodeA.getBean(UserRouteDirectory.class).register(42L);
+        nodeB.getBean(UserRouteDirectory.class).register(42L);
+
+        nodeB.getBean(UserRouteDirectory.class).unregister(42L);
+
+        Map<Long, Set<String>> routes = nodeA.getBean(UserRouteDirectory.class).lookup(Collections.singletonList(42L));
+        assertEquals(Collections.singleton("node-a"), routes.get(42L));
+    }
+
+    private static AnnotationConfigApplicationContext startNode(String nodeId) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("cluster.node-id", nodeId);
+        properties.put("cluster.relay.flush-interval-ms", "5");
+        properties.put("test.redis.port", String.valueOf(redisPort));
+
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("node", properties));
+        // 直接注册实例，不经过依赖注入
+        context.getBeanFactory().registerSingleton("offlineSyncService", Mockito.mock(OfflineSyncService.class));
+        context.register(NodeConfig.class);
+        context.refresh();
+        return context;
+    }
+
+    /**
+     * 订阅由监听容器异步建立，建立前发布的消息会丢失；发送空批次探测，直到有订阅者收到
+     */
+    private static void awaitSubscribed(AnnotationConfigApplicationContext context, String channel) throws InterruptedException {
+        StringRedisTemplate redis = context.getBean(StringRedisTemplate.class);
+        for (int i = 0; i < 100; i++) {
+            Long receivers = redis.execute((RedisCallback<Long>) connection ->
+                    connection.publish(channel.getBytes(StandardCharsets.UTF_8), "[]".getBytes(StandardCharsets.UTF_8)));
+            if (receivers != null && receivers > 0) {
+                return;
+            }
+            Thread.sleep(50);
+        }
+        throw new IllegalStateException("未能订阅频道：" + channel);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * 一个节点的最小上下文：路由目录、转发中继与Redis，消息投递替换为mock
+     */
+    @Configuration
+    @Import({RedisConfig.class, ClusterNode.class, UserRouteDirectory.class, ClusterMessageRelay.class})
+    static class NodeConfig {
+
+        @Bean
+        static PropertySourcesPlaceholderConfigurer propertySourcesPlaceholderConfigurer() {
+            return new PropertySourcesPlaceholderConfigurer();
+        }
+
+        @Bean
+        LettuceConnectionFactory redisConnectionFactory(@Value("${test.redis.port}") int port) {
+            return new LettuceConnectionFactory(new RedisStandaloneConfiguration("localhost", port));
+        }
+
+        @Bean
+        StringRedisTemplate stringRedisTemplate(RedisConnectionFactory connectionFactory) {
+            return new StringRedisTemplate(connectionFactory);
+        }
+
+        @Bean
+        ObjectMapper objectMapper() {
+            return new ObjectMapper();
+        }
+    }
+}
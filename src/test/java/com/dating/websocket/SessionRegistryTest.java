@@ -0,0 +1,134 @@
+package com.dating.websocket;
+
+import org.junit.jupiter.api.Test;
+
+import javax.websocket.Session;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 多设备会话注册表：功能验证与查询/扇出耗时随设备数变化的基准
+ */
+class SessionRegistryTest {
+
+    private static final int USERS = 10_000;
+    private static final int[] DEVICES_PER_USER = {1, 4, 16, 64};
+    private static final int OPERATIONS = 200_000;
+    private static final int ROUNDS = 5;
+
+    @Test
+    void everyDeviceIsKeptUntilItsOwnSessionCloses() {
+        SessionRegistry registry = new SessionRegistry();
+        AtomicBoolean phoneOpen = new AtomicBoolean(true);
+        Session phone = session(phoneOpen);
+        Session tablet = session(new AtomicBoolean(true));
+
+        assertTrue(registry.register(42L, phone), "第一个设备");
+        assertFalse(registry.register(42L, tablet), "第二个设备不覆盖第一个");
+        assertEquals(2, registry.getSessions(42L).size());
+
+        // 手机断开：平板继续在线
+        phoneOpen.set(false);
+        assertTrue(registry.hasOpenSession(42L));
+        assertEquals(42L, registry.unregister(phone));
+        assertEquals(1, registry.getSessions(42L).size());
+        assertTrue(registry.getSessions(42L).contains(tablet));
+
+        registry.unregister(tablet);
+        assertFalse(registry.hasOpenSession(42L));
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    void lookupAndPerDeviceFanOutCostStayFlatAsDevicesGrow() {
+        Map<Integer, double[]> results = new HashMap<>();
+        for (int devices : DEVICES_PER_USER) {
+            SessionRegistry registry = new SessionRegistry();
+            for (long userId = 0; userId < USERS; userId++) {
+                for (int d = 0; d < devices; d++) {
+                    registry.register(userId, session(new AtomicBoolean(true)));
+                }
+            }
+            double lookupNanos = Double.MAX_VALUE;
+            double fanOutNanosPerDevice = Double.MAX_VALUE;
+            // 多轮取最小值，排除JIT预热与GC干扰
+            for (int round = 0; round < ROUNDS; round++) {
+                lookupNanos = Math.min(lookupNanos, measureLookup(registry));
+                fanOutNanosPerDevice = Math.min(fanOutNanosPerDevice, measureFanOut(registry) / devices);
+            }
+            results.put(devices, new double[]{lookupNanos, fanOutNanosPerDevice});
+            System.out.printf("设备数 %2d：查询 %.1f ns/次，扇出 %.1f ns/设备%n", devices, lookupNanos, fanOutNanosPerDevice);
+        }
+
+        double[] single = results.get(1);
+        double[] most = results.get(DEVICES_PER_USER[DEVICES_PER_USER.length - 1]);
+        // 设备数增长64倍，单次查询与每设备扇出耗时应保持在同一量级
+        assertTrue(most[0] < Math.max(single[0], 50) * 4, "查询耗时不应随设备数增长");
+        assertTrue(most[1] < Math.max(single[1], 50) * 4, "每设备扇出耗时不应随设备数增长");
+    }
+
+    // 投递前的在线判断与会话取出：getSessions + hasOpenSession
+    private static double measureLookup(SessionRegistry registry) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            long userId = random.nextInt(USERS);
+            if (registry.hasOpenSession(userId)) {
+                sink += registry.getSessions(userId).isEmpty() ? 0 : 1;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        assertEquals(OPERATIONS, sink);
+        return (double) elapsed / OPERATIONS;
+    }
+
+    // 与 MessageDispatcher.sendToUser 相同的遍历：逐个设备判断会话是否打开
+    private static double measureFanOut(SessionRegistry registry) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int users = OPERATIONS / 10;
+        long delivered = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < users; i++) {
+            for (Session session : registry.getSessions((long) random.nextInt(USERS))) {
+                if (session.isOpen()) {
+                    delivered++;
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        assertTrue(delivered >= users);
+        return (double) elapsed / users;
+    }
+
+    /**
+     * 只实现注册表用到的方法：getUserProperties、isOpen，其余按对象身份处理
+     */
+    private static Session session(AtomicBoolean open) {
+        Map<String, Object> userProperties = new HashMap<>();
+        return (Session) Proxy.newProxyInstance(Session.class.getClassLoader(), new Class<?>[]{Session.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getUserProperties":
+                            return userProperties;
+                        case "isOpen":
+                            return open.get();
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "Session@" + Integer.toHexString(System.identityHashCode(proxy));
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}